@@ -0,0 +1,640 @@
+/**
+ * Copyright (C) 2013-2020 Vasilis Vryniotis <bbriniotis@datumbox.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datumbox.examples;
+
+import com.datumbox.framework.common.Configuration;
+import com.datumbox.framework.core.common.dataobjects.Dataframe;
+import com.datumbox.framework.core.common.dataobjects.Record;
+import com.datumbox.framework.common.dataobjects.TypeInference;
+import com.datumbox.framework.common.utilities.RandomGenerator;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Columnar Encoding example.
+ *
+ * @author Vasilis Vryniotis <bbriniotis@datumbox.com>
+ */
+public class ColumnarEncoding {
+
+    /**
+     * Dictionary encoded column. Every distinct value is stored once in the
+     * dictionary and the records keep only its code, as a byte when the dictionary
+     * has up to 127 entries and as a short otherwise. Missing values have code -1.
+     */
+    public static class CodeColumn {
+
+        private final List<Object> dictionary;
+
+        private byte[] byteCodes;
+
+        private short[] shortCodes;
+
+        private CodeColumn(List<Object> dictionary, int[] codes) {
+            if(dictionary.size() > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("The dictionary can't have more than "+Short.MAX_VALUE+" entries.");
+            }
+            this.dictionary = dictionary;
+
+            if(dictionary.size() <= Byte.MAX_VALUE) {
+                byteCodes = new byte[codes.length];
+                for(int i=0;i<codes.length;i++) {
+                    byteCodes[i] = (byte) codes[i];
+                }
+            }
+            else {
+                shortCodes = new short[codes.length];
+                for(int i=0;i<codes.length;i++) {
+                    shortCodes[i] = (short) codes[i];
+                }
+            }
+        }
+
+        /**
+         * Returns the code of the provided record or -1 if the value is missing.
+         *
+         * @param i
+         * @return
+         */
+        public int code(int i) {
+            return byteCodes!=null?byteCodes[i]:shortCodes[i];
+        }
+
+        /**
+         * Returns the decoded value of the provided record.
+         *
+         * @param i
+         * @return
+         */
+        public Object value(int i) {
+            int c = code(i);
+            return c>=0?dictionary.get(c):null;
+        }
+
+        /**
+         * Returns the number of distinct values.
+         *
+         * @return
+         */
+        public int cardinality() {
+            return dictionary.size();
+        }
+
+        private long bytes() {
+            return byteCodes!=null?byteCodes.length:2L*shortCodes.length;
+        }
+    }
+
+    /**
+     * Assigns codes to the values of a column in the order they are first seen.
+     */
+    private static class DictionaryEncoder {
+
+        private final Map<Object, Integer> codes = new HashMap<>();
+
+        private final List<Object> dictionary = new ArrayList<>();
+
+        private final int[] encoded;
+
+        private DictionaryEncoder(int n) {
+            encoded = new int[n];
+        }
+
+        private void set(int i, Object value) {
+            if(value == null) {
+                encoded[i] = -1;
+                return;
+            }
+            Integer c = codes.get(value);
+            if(c == null) {
+                c = dictionary.size();
+                codes.put(value, c);
+                dictionary.add(value);
+            }
+            encoded[i] = c;
+        }
+
+        /**
+         * Builds the column. The dictionary of an ordered column is sorted and the
+         * codes are remapped, so they preserve the order of the values.
+         *
+         * @param ordered
+         * @return
+         */
+        private CodeColumn build(boolean ordered) {
+            if(!ordered) {
+                return new CodeColumn(dictionary, encoded);
+            }
+            List<Object> sorted = new ArrayList<>(dictionary);
+            sorted.sort(Comparator.comparing(TypeInference::toDouble, Comparator.nullsLast(Comparator.naturalOrder())));
+            int[] remap = new int[sorted.size()];
+            for(int c=0;c<sorted.size();c++) {
+                remap[codes.get(sorted.get(c))] = c;
+            }
+            for(int i=0;i<encoded.length;i++) {
+                if(encoded[i] >= 0) {
+                    encoded[i] = remap[encoded[i]];
+                }
+            }
+            return new CodeColumn(sorted, encoded);
+        }
+    }
+
+    /**
+     * Columnar encoding of a Dataframe. Numerical columns are kept in primitive
+     * arrays, boolean columns are packed in bitsets and categorical and ordinal
+     * columns are dictionary encoded. The dictionaries of the ordinal columns
+     * are sorted, so their codes preserve the order of the values. The one-hot
+     * encoding of the categorical and ordinal columns is computed from the codes,
+     * without materializing the dummy variables.
+     */
+    public static class EncodedDataframe {
+
+        private final int n;
+
+        private final List<Object> columns = new ArrayList<>();
+
+        private final Map<Object, double[]> numericalColumns = new HashMap<>();
+
+        private final Map<Object, BitSet> booleanValues = new HashMap<>();
+
+        private final Map<Object, BitSet> booleanPresent = new HashMap<>();
+
+        private final Map<Object, CodeColumn> codeColumns = new LinkedHashMap<>();
+
+        private final CodeColumn y;
+
+        private final int[] oneHotColumn;
+
+        /**
+         * Encodes the provided Dataframe in a single pass over its records. The
+         * response variable is dictionary encoded. The Dataframe can be closed
+         * once it is encoded.
+         *
+         * @param dataframe
+         */
+        public EncodedDataframe(Dataframe dataframe) {
+            n = dataframe.size();
+
+            Map<Object, DictionaryEncoder> encoders = new LinkedHashMap<>();
+            for(Map.Entry<Object, TypeInference.DataType> entry : dataframe.getXDataTypes().entrySet()) {
+                Object column = entry.getKey();
+                TypeInference.DataType dataType = entry.getValue();
+                columns.add(column);
+                if(dataType == TypeInference.DataType.NUMERICAL) {
+                    numericalColumns.put(column, new double[n]);
+                }
+                else if(dataType == TypeInference.DataType.BOOLEAN) {
+                    booleanValues.put(column, new BitSet(n));
+                    booleanPresent.put(column, new BitSet(n));
+                }
+                else {
+                    encoders.put(column, new DictionaryEncoder(n));
+                }
+            }
+            DictionaryEncoder yEncoder = new DictionaryEncoder(n);
+
+            int i = 0;
+            for(Record r : dataframe) {
+                for(Map.Entry<Object, double[]> entry : numericalColumns.entrySet()) {
+                    Double value = TypeInference.toDouble(r.getX().get(entry.getKey()));
+                    entry.getValue()[i] = value!=null?value:Double.NaN;
+                }
+                for(Map.Entry<Object, BitSet> entry : booleanValues.entrySet()) {
+                    Double value = TypeInference.toDouble(r.getX().get(entry.getKey()));
+                    if(value != null) {
+                        booleanPresent.get(entry.getKey()).set(i);
+                        entry.getValue().set(i, value != 0.0);
+                    }
+                }
+                for(Map.Entry<Object, DictionaryEncoder> entry : encoders.entrySet()) {
+                    entry.getValue().set(i, r.getX().get(entry.getKey()));
+                }
+                yEncoder.set(i, r.getY());
+                i++;
+            }
+
+            for(Map.Entry<Object, DictionaryEncoder> entry : encoders.entrySet()) {
+                boolean ordered = dataframe.getXDataTypes().get(entry.getKey()) == TypeInference.DataType.ORDINAL;
+                codeColumns.put(entry.getKey(), entry.getValue().build(ordered));
+            }
+            y = yEncoder.build(false);
+
+            //the one-hot layout places the dummy variables of every code column one after the other
+            int size = 0;
+            for(CodeColumn codeColumn : codeColumns.values()) {
+                size += codeColumn.cardinality();
+            }
+            oneHotColumn = new int[size];
+            int offset = 0, position = 0;
+            for(CodeColumn codeColumn : codeColumns.values()) {
+                Arrays.fill(oneHotColumn, offset, offset + codeColumn.cardinality(), position++);
+                offset += codeColumn.cardinality();
+            }
+        }
+
+        /**
+         * Scales the numerical columns in place to the [0, 1] range.
+         */
+        public void minMaxScale() {
+            for(double[] values : numericalColumns.values()) {
+                double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+                for(double v : values) {
+                    if(!Double.isNaN(v)) {
+                        min = Math.min(min, v);
+                        max = Math.max(max, v);
+                    }
+                }
+                double range = max - min;
+                for(int i=0;i<values.length;i++) {
+                    if(!Double.isNaN(values[i])) {
+                        values[i] = range>0?(values[i] - min)/range:0.0;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the positions of the non-zero dummy variables of the provided record
+         * in the one-hot encoded space of the categorical and ordinal columns, without
+         * materializing the dummy variables. A column with a missing value has no
+         * non-zero dummy variable.
+         *
+         * @param i
+         * @return
+         */
+        public int[] oneHotIndexes(int i) {
+            int[] indexes = new int[codeColumns.size()];
+            int size = 0;
+            int offset = 0;
+            for(CodeColumn codeColumn : codeColumns.values()) {
+                int c = codeColumn.code(i);
+                if(c >= 0) {
+                    indexes[size++] = offset + c;
+                }
+                offset += codeColumn.cardinality();
+            }
+            return size==indexes.length?indexes:Arrays.copyOf(indexes, size);
+        }
+
+        /**
+         * Returns the number of dummy variables of the one-hot encoded space.
+         *
+         * @return
+         */
+        public int getOneHotSize() {
+            return oneHotColumn.length;
+        }
+
+        /**
+         * Returns the number of records.
+         *
+         * @return
+         */
+        public int size() {
+            return n;
+        }
+
+        /**
+         * Returns the encoded response variable.
+         *
+         * @return
+         */
+        public CodeColumn getY() {
+            return y;
+        }
+
+        /**
+         * Returns the number of bytes used by the column storage, excluding the dictionaries.
+         *
+         * @return
+         */
+        public long getDataBytes() {
+            long bytes = 8L*n*numericalColumns.size();
+            for(Object column : booleanValues.keySet()) {
+                bytes += booleanValues.get(column).size()/8 + booleanPresent.get(column).size()/8;
+            }
+            for(CodeColumn codeColumn : codeColumns.values()) {
+                bytes += codeColumn.bytes();
+            }
+            return bytes + y.bytes();
+        }
+
+        /**
+         * Returns the number of values stored.
+         *
+         * @return
+         */
+        public long getNumberOfValues() {
+            return (long)n*(columns.size() + 1);
+        }
+    }
+
+    /**
+     * K-means centroid over an EncodedDataframe. The categorical part of the centroid
+     * is the mean of the one-hot encoded dummy variables, which the records provide
+     * through oneHotIndexes(). Missing values are skipped, both when the centroid is
+     * estimated and when distances are measured.
+     */
+    public static class Centroid {
+
+        private final Map<Object, Double> numerical = new HashMap<>();
+
+        private final Map<Object, Integer> counts = new HashMap<>();
+
+        private final int[] oneHotColumn;
+
+        private final double[] oneHot;
+
+        private final int[] categoricalCounts;
+
+        private final double[] categoricalSquaredNorms;
+
+        private Centroid(EncodedDataframe data) {
+            for(Object column : data.numericalColumns.keySet()) {
+                numerical.put(column, 0.0);
+            }
+            for(Object column : data.booleanValues.keySet()) {
+                numerical.put(column, 0.0);
+            }
+            oneHotColumn = data.oneHotColumn;
+            oneHot = new double[data.getOneHotSize()];
+            categoricalCounts = new int[data.codeColumns.size()];
+            categoricalSquaredNorms = new double[data.codeColumns.size()];
+        }
+
+        private void add(EncodedDataframe data, int i) {
+            for(Map.Entry<Object, double[]> entry : data.numericalColumns.entrySet()) {
+                double v = entry.getValue()[i];
+                if(!Double.isNaN(v)) {
+                    numerical.merge(entry.getKey(), v, Double::sum);
+                    counts.merge(entry.getKey(), 1, Integer::sum);
+                }
+            }
+            for(Map.Entry<Object, BitSet> entry : data.booleanValues.entrySet()) {
+                Object column = entry.getKey();
+                if(data.booleanPresent.get(column).get(i)) {
+                    numerical.merge(column, entry.getValue().get(i)?1.0:0.0, Double::sum);
+                    counts.merge(column, 1, Integer::sum);
+                }
+            }
+            for(int index : data.oneHotIndexes(i)) {
+                oneHot[index] += 1.0;
+                categoricalCounts[oneHotColumn[index]]++;
+            }
+        }
+
+        private void normalize() {
+            numerical.replaceAll((column, v) -> {
+                Integer count = counts.get(column);
+                return count!=null?v/count:v;
+            });
+            for(int index=0;index<oneHot.length;index++) {
+                int column = oneHotColumn[index];
+                if(categoricalCounts[column] > 0) {
+                    oneHot[index] /= categoricalCounts[column];
+                }
+                categoricalSquaredNorms[column] += oneHot[index]*oneHot[index];
+            }
+        }
+
+        /**
+         * Returns the squared euclidean distance between a record and the centroid in the
+         * one-hot encoded space. For a column where the record has the dummy variable at
+         * index j and the centroid has the means f, the distance is sum(f^2) + 1 - 2*f[j].
+         *
+         * @param data
+         * @param i
+         * @param categoricalGamaMultiplier the weight of the categorical columns, as in Kmeans.TrainingParameters
+         * @return
+         */
+        public double squaredDistance(EncodedDataframe data, int i, double categoricalGamaMultiplier) {
+            double distance = 0.0;
+            for(Map.Entry<Object, double[]> entry : data.numericalColumns.entrySet()) {
+                double v = entry.getValue()[i];
+                if(!Double.isNaN(v)) {
+                    double d = v - numerical.get(entry.getKey());
+                    distance += d*d;
+                }
+            }
+            for(Map.Entry<Object, BitSet> entry : data.booleanValues.entrySet()) {
+                Object column = entry.getKey();
+                if(data.booleanPresent.get(column).get(i)) {
+                    double d = (entry.getValue().get(i)?1.0:0.0) - numerical.get(column);
+                    distance += d*d;
+                }
+            }
+
+            double categoricalDistance = 0.0;
+            for(int index : data.oneHotIndexes(i)) {
+                categoricalDistance += categoricalSquaredNorms[oneHotColumn[index]] + 1.0 - 2.0*oneHot[index];
+            }
+            return distance + categoricalGamaMultiplier*categoricalDistance;
+        }
+    }
+
+    /**
+     * Estimated heap bytes of a Record with its AssociativeArray and the empty HashMap behind it.
+     */
+    private static final long RECORD_BYTES = 96L;
+
+    /**
+     * Estimated heap bytes of a HashMap entry, including its slot in the table.
+     */
+    private static final long MAP_ENTRY_BYTES = 40L;
+
+    /**
+     * Estimated heap bytes of a boxed Double or Integer.
+     */
+    private static final long BOXED_NUMBER_BYTES = 16L;
+
+    /**
+     * Estimated heap bytes of an empty String; every Latin-1 character adds one byte.
+     */
+    private static final long STRING_BYTES = 40L;
+
+    /**
+     * Estimates the heap bytes of the records of a Dataframe, where every value is a
+     * boxed object in the HashMap of its record. Booleans are the shared Boolean
+     * constants, so they cost only their map entry.
+     *
+     * @param dataframe
+     * @return
+     */
+    private static long estimateBoxedBytes(Dataframe dataframe) {
+        long bytes = 0L;
+        for(Record r : dataframe) {
+            bytes += RECORD_BYTES + MAP_ENTRY_BYTES + BOXED_NUMBER_BYTES; //the record and its id in the Dataframe
+            for(Object value : r.getX().values()) {
+                bytes += MAP_ENTRY_BYTES + estimateValueBytes(value);
+            }
+            bytes += estimateValueBytes(r.getY());
+        }
+        return bytes;
+    }
+
+    private static long estimateValueBytes(Object value) {
+        if(value == null || value instanceof Boolean) {
+            return 0L;
+        }
+        if(value instanceof String) {
+            return STRING_BYTES + ((String) value).length();
+        }
+        return BOXED_NUMBER_BYTES;
+    }
+
+    /**
+     * Example of how to store categorical and boolean columns compactly and how to
+     * cluster the records operating directly on the codes.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        /**
+         * There are 5 configuration files in the resources folder:
+         *
+         * - datumbox.configuration.properties: It defines for the default storage engine (required)
+         * - datumbox.concurrencyconfiguration.properties: It controls the concurrency levels (required)
+         * - datumbox.inmemoryconfiguration.properties: It contains the configurations for the InMemory storage engine (required)
+         * - datumbox.mapdbconfiguration.properties: It contains the configurations for the MapDB storage engine (optional)
+         * - logback.xml: It contains the configuration file for the logger (optional)
+         */
+
+        //Initialization
+        //--------------
+        RandomGenerator.setGlobalSeed(42L); //optionally set a specific seed for all Random objects
+        Configuration configuration = Configuration.getConfiguration(); //default configuration based on properties file
+
+
+
+        //Reading Data
+        //------------
+        Dataframe dataframe;
+        try (Reader fileReader = new InputStreamReader(new FileInputStream(Paths.get(ColumnarEncoding.class.getClassLoader().getResource("datasets/heart-desease/heart.csv").toURI()).toFile()), "UTF-8")) {
+            LinkedHashMap<String, TypeInference.DataType> headerDataTypes = new LinkedHashMap<>();
+            headerDataTypes.put("Age", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Sex", TypeInference.DataType.CATEGORICAL);
+            headerDataTypes.put("ChestPain", TypeInference.DataType.CATEGORICAL);
+            headerDataTypes.put("RestBP", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Cholesterol", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("BloodSugar", TypeInference.DataType.BOOLEAN);
+            headerDataTypes.put("ECG", TypeInference.DataType.CATEGORICAL);
+            headerDataTypes.put("MaxHeartRate", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Angina", TypeInference.DataType.BOOLEAN);
+            headerDataTypes.put("OldPeak", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("STSlope", TypeInference.DataType.ORDINAL);
+            headerDataTypes.put("Vessels", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Thal", TypeInference.DataType.CATEGORICAL);
+            headerDataTypes.put("Class", TypeInference.DataType.CATEGORICAL);
+
+            dataframe = Dataframe.Builder.parseCSVFile(fileReader, "Class", headerDataTypes, ',', '"', "\r\n", null, null, configuration);
+        }
+        catch(UncheckedIOException | IOException | URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+
+
+
+        //Encode the Dataframe
+        //--------------------
+        EncodedDataframe data = new EncodedDataframe(dataframe);
+        long boxedBytes = estimateBoxedBytes(dataframe);
+        dataframe.close(); //the boxed records are no longer needed
+        data.minMaxScale();
+
+        System.out.println("Encoded values: "+data.getNumberOfValues());
+        System.out.println("Boxed Dataframe (estimated bytes): "+boxedBytes+", Column storage (bytes): "+data.getDataBytes()+", Ratio: "+boxedBytes/(double)data.getDataBytes());
+        System.out.println("One-hot dummy variables: "+data.getOneHotSize()+", Indexes of record 0: "+Arrays.toString(data.oneHotIndexes(0)));
+
+
+
+        //Cluster on the codes
+        //--------------------
+
+        //Forgy initialization followed by Lloyd iterations, as in Kmeans with the EUCLIDIAN distance.
+        //The categorical columns are compared in their one-hot encoding, computed from the codes.
+        int k = 2;
+        int maxIterations = 200;
+        double categoricalGamaMultiplier = 1.0;
+        Random random = new Random(42L);
+
+        //the initial centroids are k distinct records
+        List<Integer> indexes = new ArrayList<>(data.size());
+        for(int i=0;i<data.size();i++) {
+            indexes.add(i);
+        }
+        Collections.shuffle(indexes, random);
+
+        int[] assignments = new int[data.size()];
+        Centroid[] centroids = new Centroid[k];
+        for(int j=0;j<k;j++) {
+            centroids[j] = new Centroid(data);
+            centroids[j].add(data, indexes.get(j));
+            centroids[j].normalize();
+        }
+
+        for(int iteration=0;iteration<maxIterations;iteration++) {
+            boolean changed = iteration == 0;
+            for(int i=0;i<data.size();i++) {
+                int best = 0;
+                double bestDistance = Double.POSITIVE_INFINITY;
+                for(int j=0;j<k;j++) {
+                    double distance = centroids[j].squaredDistance(data, i, categoricalGamaMultiplier);
+                    if(distance < bestDistance) {
+                        bestDistance = distance;
+                        best = j;
+                    }
+                }
+                if(assignments[i] != best) {
+                    assignments[i] = best;
+                    changed = true;
+                }
+            }
+            if(!changed) {
+                break;
+            }
+
+            for(int j=0;j<k;j++) {
+                centroids[j] = new Centroid(data);
+            }
+            for(int i=0;i<data.size();i++) {
+                centroids[assignments[i]].add(data, i);
+            }
+            for(Centroid centroid : centroids) {
+                centroid.normalize();
+            }
+        }
+
+        //Purity of the clusters against the real classes
+        long[][] counts = new long[k][data.getY().cardinality()];
+        for(int i=0;i<data.size();i++) {
+            int c = data.getY().code(i);
+            if(c >= 0) {
+                counts[assignments[i]][c]++;
+            }
+        }
+        long majority = 0L;
+        for(long[] clusterCounts : counts) {
+            majority += Arrays.stream(clusterCounts).max().orElse(0L);
+        }
+
+        System.out.println("Clusterer Purity: "+majority/(double)data.size());
+    }
+
+}
@@ -0,0 +1,573 @@
+/**
+ * Copyright (C) 2013-2020 Vasilis Vryniotis <bbriniotis@datumbox.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datumbox.examples;
+
+import com.datumbox.framework.common.Configuration;
+import com.datumbox.framework.core.common.dataobjects.Dataframe;
+import com.datumbox.framework.common.dataobjects.TypeInference;
+import com.datumbox.framework.common.utilities.RandomGenerator;
+import com.datumbox.framework.core.machinelearning.MLBuilder;
+import com.datumbox.framework.core.machinelearning.regression.MatrixLinearRegression;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Model Registry example.
+ *
+ * @author Vasilis Vryniotis <bbriniotis@datumbox.com>
+ */
+public class ModelRegistry {
+
+    /**
+     * Cache of loaded models with a weight budget. The least recently used models
+     * are evicted when the total estimated weight exceeds the budget, and concurrent
+     * requests for a model which is not loaded trigger a single load. Models are
+     * handed out through leases; an evicted model is closed once its last lease is
+     * released so that it is never closed while it is in use.
+     *
+     * @param <T>
+     */
+    public static class Registry<T extends AutoCloseable> implements AutoCloseable {
+
+        private final Function<String, T> loader;
+
+        private final ToLongFunction<T> weigher;
+
+        private final long maxWeight;
+
+        private final LinkedHashMap<String, Entry<T>> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final ConcurrentHashMap<String, CompletableFuture<Entry<T>>> inFlight = new ConcurrentHashMap<>();
+
+        private long totalWeight = 0L;
+
+        private boolean closed = false;
+
+        private final LongAdder hits = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        private final LongAdder loads = new LongAdder();
+
+        private final LongAdder evictions = new LongAdder();
+
+        private final AtomicLong totalLoadNanos = new AtomicLong();
+
+        private final AtomicLong maxLoadNanos = new AtomicLong();
+
+        /**
+         * Public constructor.
+         *
+         * @param loader loads a model by its storage name, e.g. name -> MLBuilder.load(aClass, name, configuration)
+         * @param weigher estimates the number of bytes of a loaded model
+         * @param maxWeight the budget of the cache in estimated bytes
+         */
+        public Registry(Function<String, T> loader, ToLongFunction<T> weigher, long maxWeight) {
+            if(maxWeight <= 0) {
+                throw new IllegalArgumentException("The maxWeight must be positive.");
+            }
+            this.loader = loader;
+            this.weigher = weigher;
+            this.maxWeight = maxWeight;
+        }
+
+        /**
+         * Returns a lease on the model with the provided storage name, loading it if necessary.
+         * The lease must be closed when the model is no longer used.
+         *
+         * @param name
+         * @return
+         */
+        public Lease<T> acquire(String name) {
+            while(true) {
+                synchronized(this) {
+                    if(closed) {
+                        throw new IllegalStateException("The registry is closed.");
+                    }
+                    Entry<T> entry = cache.get(name);
+                    if(entry != null) {
+                        hits.increment();
+                        entry.refCount++;
+                        return new Lease<>(this, entry);
+                    }
+                }
+
+                CompletableFuture<Entry<T>> future = new CompletableFuture<>();
+                CompletableFuture<Entry<T>> existing = inFlight.putIfAbsent(name, future);
+                if(existing != null) {
+                    //another thread is loading the model; wait for it instead of loading it again
+                    Entry<T> entry;
+                    try {
+                        entry = existing.join();
+                    }
+                    catch(CompletionException ex) {
+                        inFlight.remove(name, existing);
+                        Throwable cause = ex.getCause();
+                        if(cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw cause instanceof RuntimeException?(RuntimeException) cause:ex;
+                    }
+                    inFlight.remove(name, existing); //the leader removes it before completing; this only guards against stale futures
+                    synchronized(this) {
+                        if(!entry.evicted) {
+                            hits.increment(); //served without triggering a load
+                            entry.refCount++;
+                            return new Lease<>(this, entry);
+                        }
+                    }
+                    continue; //evicted before we could lease it; try again
+                }
+
+                Entry<T> entry;
+                try {
+                    synchronized(this) {
+                        //the model may have been loaded by another thread between the cache miss and the registration of our load
+                        Entry<T> cached = cache.get(name);
+                        if(cached != null) {
+                            hits.increment();
+                            cached.refCount++;
+                            inFlight.remove(name, future);
+                            future.complete(cached);
+                            return new Lease<>(this, cached);
+                        }
+                    }
+                    misses.increment();
+                    entry = load(name);
+                }
+                catch(Throwable ex) {
+                    //errors such as OutOfMemoryError must release the waiters too
+                    inFlight.remove(name, future);
+                    future.completeExceptionally(ex);
+                    throw ex;
+                }
+                entry.refCount++;
+
+                List<Entry<T>> toClose = new ArrayList<>();
+                synchronized(this) {
+                    if(closed) {
+                        entry.evicted = true; //the registry was closed during the load; the model is closed on release
+                    }
+                    else {
+                        Entry<T> previous = cache.put(name, entry);
+                        if(previous != null) {
+                            totalWeight -= previous.weight;
+                            markEvicted(previous, toClose);
+                        }
+                        totalWeight += entry.weight;
+
+                        Iterator<Entry<T>> it = cache.values().iterator();
+                        while(totalWeight > maxWeight && it.hasNext()) {
+                            Entry<T> eldest = it.next();
+                            if(eldest == entry) {
+                                continue; //never evict the model which was just requested
+                            }
+                            it.remove();
+                            totalWeight -= eldest.weight;
+                            evictions.increment();
+                            markEvicted(eldest, toClose);
+                        }
+                    }
+                }
+
+                //unregister the load before publishing it, so that a waiter which retries starts a new load
+                inFlight.remove(name, future);
+                future.complete(entry);
+
+                Lease<T> lease = new Lease<>(this, entry);
+                try {
+                    closeAll(toClose);
+                }
+                catch(RuntimeException ex) {
+                    lease.close();
+                    throw ex;
+                }
+                return lease;
+            }
+        }
+
+        /**
+         * Loads and weighs a model. The model is closed if it can't be weighed.
+         *
+         * @param name
+         * @return
+         */
+        private Entry<T> load(String name) {
+            long start = System.nanoTime();
+            T model = loader.apply(name);
+            long loadNanos = System.nanoTime() - start;
+            loads.increment();
+            totalLoadNanos.addAndGet(loadNanos);
+            maxLoadNanos.accumulateAndGet(loadNanos, Math::max);
+
+            try {
+                return new Entry<>(name, model, weigher.applyAsLong(model));
+            }
+            catch(Throwable ex) {
+                try {
+                    model.close();
+                }
+                catch(Exception suppressed) {
+                    ex.addSuppressed(suppressed);
+                }
+                throw ex;
+            }
+        }
+
+        /**
+         * Returns the fraction of requests which were served without triggering a load,
+         * either from the cache or by joining a load which was already in flight.
+         *
+         * @return
+         */
+        public double getHitRate() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total>0?h/(double)total:0.0;
+        }
+
+        /**
+         * Returns the number of loads performed.
+         *
+         * @return
+         */
+        public long getLoads() {
+            return loads.sum();
+        }
+
+        /**
+         * Returns the number of models evicted due to the weight budget.
+         *
+         * @return
+         */
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        /**
+         * Returns the average load latency in milliseconds.
+         *
+         * @return
+         */
+        public double getAverageLoadMillis() {
+            long l = loads.sum();
+            return l>0?totalLoadNanos.get()/(l*1e6):0.0;
+        }
+
+        /**
+         * Returns the maximum load latency in milliseconds.
+         *
+         * @return
+         */
+        public double getMaxLoadMillis() {
+            return maxLoadNanos.get()/1e6;
+        }
+
+        /**
+         * Returns the total estimated weight of the cached models.
+         *
+         * @return
+         */
+        public synchronized long getTotalWeight() {
+            return totalWeight;
+        }
+
+        /**
+         * Returns the number of cached models.
+         *
+         * @return
+         */
+        public synchronized int size() {
+            return cache.size();
+        }
+
+        /**
+         * Evicts all models and closes those which are not leased. The leased models
+         * are closed when their leases are released.
+         */
+        @Override
+        public void close() {
+            List<Entry<T>> toClose = new ArrayList<>();
+            synchronized(this) {
+                closed = true;
+                for(Entry<T> entry : cache.values()) {
+                    markEvicted(entry, toClose);
+                }
+                cache.clear();
+                totalWeight = 0L;
+            }
+            closeAll(toClose);
+        }
+
+        private void release(Entry<T> entry) {
+            boolean close;
+            synchronized(this) {
+                entry.refCount--;
+                close = entry.evicted && entry.refCount == 0;
+            }
+            if(close) {
+                closeAll(Collections.singletonList(entry));
+            }
+        }
+
+        private void markEvicted(Entry<T> entry, List<Entry<T>> toClose) {
+            entry.evicted = true;
+            if(entry.refCount == 0) {
+                toClose.add(entry);
+            }
+        }
+
+        /**
+         * Closes all the provided models. A failure doesn't stop the rest from being
+         * closed; the failures are thrown together once all of them are attempted.
+         *
+         * @param entries
+         */
+        private void closeAll(List<Entry<T>> entries) {
+            RuntimeException failure = null;
+            for(Entry<T> entry : entries) {
+                try {
+                    entry.model.close();
+                }
+                catch(Exception ex) {
+                    if(failure == null) {
+                        failure = new RuntimeException("Failed to close the model "+entry.name+".", ex);
+                    }
+                    else {
+                        failure.addSuppressed(ex);
+                    }
+                }
+            }
+            if(failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * A loaded model along with its bookkeeping. The mutable fields are guarded by the registry.
+         *
+         * @param <T>
+         */
+        private static class Entry<T> {
+            private final String name;
+            private final T model;
+            private final long weight;
+            private int refCount = 0;
+            private boolean evicted = false;
+
+            private Entry(String name, T model, long weight) {
+                this.name = name;
+                this.model = model;
+                this.weight = weight;
+            }
+        }
+    }
+
+    /**
+     * A lease on a model of the registry.
+     *
+     * @param <T>
+     */
+    public static class Lease<T extends AutoCloseable> implements AutoCloseable {
+
+        private final Registry<T> registry;
+
+        private final Registry.Entry<T> entry;
+
+        private boolean released = false;
+
+        private Lease(Registry<T> registry, Registry.Entry<T> entry) {
+            this.registry = registry;
+            this.entry = entry;
+        }
+
+        /**
+         * Returns the leased model.
+         *
+         * @return
+         */
+        public T get() {
+            if(released) {
+                throw new IllegalStateException("The lease of model "+entry.name+" is released.");
+            }
+            return entry.model;
+        }
+
+        /**
+         * Releases the lease. The model must not be used afterwards.
+         */
+        @Override
+        public void close() {
+            if(!released) {
+                released = true;
+                registry.release(entry);
+            }
+        }
+    }
+
+    /**
+     * Estimates the memory of a model by the size of its serialized parameters.
+     *
+     * @param object
+     * @return
+     */
+    private static long serializedSize(Object object) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(object);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.size();
+    }
+
+    /**
+     * Example of how to serve many saved models from a bounded cache.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        /**
+         * There are 5 configuration files in the resources folder:
+         *
+         * - datumbox.configuration.properties: It defines for the default storage engine (required)
+         * - datumbox.concurrencyconfiguration.properties: It controls the concurrency levels (required)
+         * - datumbox.inmemoryconfiguration.properties: It contains the configurations for the InMemory storage engine (required)
+         * - datumbox.mapdbconfiguration.properties: It contains the configurations for the MapDB storage engine (optional)
+         * - logback.xml: It contains the configuration file for the logger (optional)
+         */
+
+        //Initialization
+        //--------------
+        RandomGenerator.setGlobalSeed(42L); //optionally set a specific seed for all Random objects
+        Configuration configuration = Configuration.getConfiguration(); //default configuration based on properties file
+
+
+
+        //Reading Data
+        //------------
+        Dataframe trainingDataframe;
+        try (Reader fileReader = new InputStreamReader(new FileInputStream(Paths.get(ModelRegistry.class.getClassLoader().getResource("datasets/labor-statistics/longley.csv").toURI()).toFile()), "UTF-8")) {
+            LinkedHashMap<String, TypeInference.DataType> headerDataTypes = new LinkedHashMap<>();
+            headerDataTypes.put("Employed", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("GNP.deflator", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("GNP", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Unemployed", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Armed.Forces", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Population", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Year", TypeInference.DataType.NUMERICAL);
+
+            trainingDataframe = Dataframe.Builder.parseCSVFile(fileReader, "Employed", headerDataTypes, ',', '"', "\r\n", null, null, configuration);
+        }
+        catch(UncheckedIOException | IOException | URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+
+
+
+        //Fit and save one model per tenant
+        //---------------------------------
+        int tenants = 6;
+        long modelWeight = 0L;
+        for(int i=0;i<tenants;i++) {
+            MatrixLinearRegression regressor = MLBuilder.create(new MatrixLinearRegression.TrainingParameters(), configuration);
+            regressor.fit(trainingDataframe);
+            regressor.save("LaborStatistics-"+i);
+            modelWeight = serializedSize(regressor.getModelParameters());
+            regressor.close();
+        }
+
+
+
+        //Serve the models from the registry
+        //----------------------------------
+
+        //The budget fits only half of the models
+        Registry<MatrixLinearRegression> registry = new Registry<>(
+                name -> MLBuilder.load(MatrixLinearRegression.class, name, configuration),
+                model -> serializedSize(model.getModelParameters()),
+                modelWeight*tenants/2
+        );
+
+        int threads = 8;
+        List<Dataframe> workerDataframes = new ArrayList<>();
+        for(int t=0;t<threads;t++) {
+            workerDataframes.add(trainingDataframe.copy());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t=0;t<threads;t++) {
+            Dataframe df = workerDataframes.get(t);
+            Random random = new Random(t);
+            futures.add(executor.submit(() -> {
+                for(int i=0;i<200;i++) {
+                    //skewed traffic: the first tenants receive most of the requests
+                    int tenant = Math.min((int)Math.abs(random.nextGaussian()*tenants/3.0), tenants-1);
+                    try(Lease<MatrixLinearRegression> lease = registry.acquire("LaborStatistics-"+tenant)) {
+                        lease.get().predict(df);
+                    }
+                }
+                return null;
+            }));
+        }
+        try {
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch(InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+        finally {
+            executor.shutdownNow(); //the pool threads are not daemons; stop them even if a worker failed
+        }
+
+        System.out.println("Hit rate: "+registry.getHitRate());
+        System.out.println("Loads: "+registry.getLoads()+", Evictions: "+registry.getEvictions());
+        System.out.println("Average load latency (ms): "+registry.getAverageLoadMillis()+", Max load latency (ms): "+registry.getMaxLoadMillis());
+        System.out.println("Cached models: "+registry.size()+", Total weight (bytes): "+registry.getTotalWeight());
+
+
+
+        //Clean up
+        //--------
+
+        //Close the registry. This closes all cached models.
+        registry.close();
+
+        //Delete the models. This removes all files.
+        for(int i=0;i<tenants;i++) {
+            MLBuilder.load(MatrixLinearRegression.class, "LaborStatistics-"+i, configuration).delete();
+        }
+
+        //Close Dataframes.
+        for(Dataframe df : workerDataframes) {
+            df.close();
+        }
+        trainingDataframe.close();
+    }
+
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2013-2020 Vasilis Vryniotis <bbriniotis@datumbox.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datumbox.examples;
+
+import com.datumbox.framework.common.Configuration;
+import com.datumbox.framework.core.common.dataobjects.Dataframe;
+import com.datumbox.framework.core.common.dataobjects.Record;
+import com.datumbox.framework.common.dataobjects.TypeInference;
+import com.datumbox.framework.common.utilities.RandomGenerator;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Online Regression example.
+ *
+ * @author Vasilis Vryniotis <bbriniotis@datumbox.com>
+ */
+public class OnlineRegression {
+
+    /**
+     * Normalized Least Mean Squares regressor which learns one Record at a time.
+     * Unlike the NLMS algorithm of the framework, it does not require a materialized
+     * Dataframe and it does not iterate over it for a fixed number of epochs. The
+     * features are standardized on the fly using running means and variances, the
+     * weights are adjusted in place on every update and the memory footprint is
+     * bounded by the number of features, regardless of how many records are seen.
+     *
+     * The class is not thread-safe: an update must not run concurrently with other
+     * updates or predictions. Once the model is no longer updated, predictions can
+     * run concurrently from several threads.
+     */
+    public static class StreamingNLMS {
+
+        private final double learningRate;
+
+        private final double epsilon;
+
+        private final Map<Object, Double> weights = new HashMap<>();
+
+        private final Map<Object, RunningStatistics> statistics = new HashMap<>();
+
+        private double bias = 0.0;
+
+        private long n = 0L;
+
+        /**
+         * Running mean and variance of a feature, updated with the Welford algorithm.
+         */
+        private static class RunningStatistics {
+
+            private long count = 0L;
+
+            private double mean = 0.0;
+
+            private double m2 = 0.0;
+
+            private void add(double value) {
+                ++count;
+                double delta = value - mean;
+                mean += delta/count;
+                m2 += delta*(value - mean);
+            }
+
+            private double standardize(double value) {
+                if(count < 2) {
+                    return 0.0;
+                }
+                double std = Math.sqrt(m2/(count - 1));
+                return std>0.0?(value - mean)/std:0.0;
+            }
+        }
+
+        /**
+         * Public constructor.
+         *
+         * @param learningRate the step size of the updates; NLMS converges for values in (0, 2)
+         * @param epsilon small regularization constant which protects against division by zero
+         */
+        public StreamingNLMS(double learningRate, double epsilon) {
+            if(learningRate <= 0.0 || learningRate >= 2.0) {
+                throw new IllegalArgumentException("The learningRate must be in the (0, 2) range.");
+            }
+            this.learningRate = learningRate;
+            this.epsilon = epsilon;
+        }
+
+        /**
+         * Returns the standardized features of the record. Unknown and missing features are skipped.
+         *
+         * @param r
+         * @return
+         */
+        private Map<Object, Double> standardize(Record r) {
+            Map<Object, Double> z = new HashMap<>();
+            for(Map.Entry<Object, Object> entry : r.getX().entrySet()) {
+                Double value = TypeInference.toDouble(entry.getValue());
+                RunningStatistics stats = statistics.get(entry.getKey());
+                if(value != null && stats != null) {
+                    z.put(entry.getKey(), stats.standardize(value));
+                }
+            }
+            return z;
+        }
+
+        /**
+         * Estimates the response of the provided record using the current weights.
+         *
+         * @param r
+         * @return
+         */
+        public double predict(Record r) {
+            double yPredicted = bias;
+            for(Map.Entry<Object, Double> entry : standardize(r).entrySet()) {
+                Double weight = weights.get(entry.getKey());
+                if(weight != null) {
+                    yPredicted += weight*entry.getValue();
+                }
+            }
+            return yPredicted;
+        }
+
+        /**
+         * Adjusts the running statistics and the weights in place using a single record.
+         *
+         * @param r
+         * @return the prediction error before the update
+         */
+        public double update(Record r) {
+            Double y = TypeInference.toDouble(r.getY());
+            if(y == null) {
+                throw new IllegalArgumentException("The response variable of the record can't be null.");
+            }
+
+            for(Map.Entry<Object, Object> entry : r.getX().entrySet()) {
+                Double value = TypeInference.toDouble(entry.getValue());
+                if(value != null) {
+                    statistics.computeIfAbsent(entry.getKey(), k -> new RunningStatistics()).add(value);
+                }
+            }
+
+            Map<Object, Double> z = standardize(r);
+            double yPredicted = bias;
+            double squaredNorm = 1.0; //the bias term is a constant feature with value 1
+            for(Map.Entry<Object, Double> entry : z.entrySet()) {
+                yPredicted += weights.getOrDefault(entry.getKey(), 0.0)*entry.getValue();
+                squaredNorm += entry.getValue()*entry.getValue();
+            }
+            double error = y - yPredicted;
+
+            double step = learningRate*error/(epsilon + squaredNorm);
+            for(Map.Entry<Object, Double> entry : z.entrySet()) {
+                weights.merge(entry.getKey(), step*entry.getValue(), Double::sum);
+            }
+            bias += step;
+            ++n;
+
+            return error;
+        }
+
+        /**
+         * Adjusts the weights in place using a batch of records, in the order they are provided.
+         *
+         * @param batch
+         * @return the mean squared prediction error of the batch before each update
+         */
+        public double update(Iterable<Record> batch) {
+            double sse = 0.0;
+            int count = 0;
+            for(Record r : batch) {
+                double error = update(r);
+                sse += error*error;
+                ++count;
+            }
+            return count>0?sse/count:0.0;
+        }
+
+        /**
+         * Returns the total number of records used to train the model.
+         *
+         * @return
+         */
+        public long getN() {
+            return n;
+        }
+
+        /**
+         * Returns a read-only view of the current weights of the standardized features.
+         *
+         * @return
+         */
+        public Map<Object, Double> getWeights() {
+            return Collections.unmodifiableMap(weights);
+        }
+
+        /**
+         * Returns the current bias (intercept) of the model.
+         *
+         * @return
+         */
+        public double getBias() {
+            return bias;
+        }
+    }
+
+    /**
+     * Example of how to train a regressor incrementally on a live feed of records
+     * instead of retraining it periodically on the full history.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        /**
+         * There are 5 configuration files in the resources folder:
+         *
+         * - datumbox.configuration.properties: It defines for the default storage engine (required)
+         * - datumbox.concurrencyconfiguration.properties: It controls the concurrency levels (required)
+         * - datumbox.inmemoryconfiguration.properties: It contains the configurations for the InMemory storage engine (required)
+         * - datumbox.mapdbconfiguration.properties: It contains the configurations for the MapDB storage engine (optional)
+         * - logback.xml: It contains the configuration file for the logger (optional)
+         */
+
+        //Initialization
+        //--------------
+        RandomGenerator.setGlobalSeed(42L); //optionally set a specific seed for all Random objects
+        Configuration configuration = Configuration.getConfiguration(); //default configuration based on properties file
+
+
+
+        //Reading Data
+        //------------
+        Dataframe trainingDataframe;
+        try (Reader fileReader = new InputStreamReader(new FileInputStream(Paths.get(OnlineRegression.class.getClassLoader().getResource("datasets/labor-statistics/longley.csv").toURI()).toFile()), "UTF-8")) {
+            LinkedHashMap<String, TypeInference.DataType> headerDataTypes = new LinkedHashMap<>();
+            headerDataTypes.put("Employed", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("GNP.deflator", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("GNP", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Unemployed", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Armed.Forces", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Population", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Year", TypeInference.DataType.NUMERICAL);
+
+            trainingDataframe = Dataframe.Builder.parseCSVFile(fileReader, "Employed", headerDataTypes, ',', '"', "\r\n", null, null, configuration);
+        }
+        catch(UncheckedIOException | IOException | URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+
+
+        //Train the regressor on a live feed
+        //----------------------------------
+
+        //The Dataframe is replayed several times to simulate a continuous stream of records.
+        //No scaler is fitted upfront; the regressor standardizes the features with its running statistics.
+        StreamingNLMS regressor = new StreamingNLMS(0.5, 1e-8);
+        int passes = 200;
+        for(int p=0;p<passes;p++) {
+            for(Record r : trainingDataframe.values()) {
+                regressor.update(r);
+            }
+        }
+
+
+
+        //Use the regressor
+        //-----------------
+
+        double sumY = 0.0, sumY2 = 0.0, sse = 0.0;
+        int n = 0;
+        System.out.println("Results:");
+        for(Map.Entry<Integer, Record> entry: trainingDataframe.entries()) {
+            Integer rId = entry.getKey();
+            Record r = entry.getValue();
+            double y = TypeInference.toDouble(r.getY());
+            double yPredicted = regressor.predict(r);
+            System.out.println("Record "+rId+" - Real Y: "+y+", Predicted Y: "+yPredicted);
+
+            sumY += y;
+            sumY2 += y*y;
+            sse += (y-yPredicted)*(y-yPredicted);
+            ++n;
+        }
+        double sst = sumY2 - sumY*sumY/n;
+
+        System.out.println("Records seen: "+regressor.getN());
+        System.out.println("Regressor Rsquare: "+(1.0 - sse/sst));
+
+
+
+        //Benchmark the update throughput
+        //-------------------------------
+
+        //Warm up the JIT before measuring
+        for(int p=0;p<passes;p++) {
+            regressor.update(trainingDataframe.values());
+        }
+
+        long updates = 0L;
+        long startTime = System.nanoTime();
+        for(int p=0;p<10*passes;p++) {
+            for(Record r : trainingDataframe.values()) {
+                regressor.update(r);
+                ++updates;
+            }
+        }
+        double elapsedSeconds = (System.nanoTime() - startTime)/1e9;
+
+        System.out.println("Update throughput: "+Math.round(updates/elapsedSeconds)+" records/sec");
+
+
+
+        //Clean up
+        //--------
+
+        //Close Dataframes.
+        trainingDataframe.close();
+    }
+
+}
@@ -0,0 +1,401 @@
+/**
+ * Copyright (C) 2013-2020 Vasilis Vryniotis <bbriniotis@datumbox.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datumbox.examples;
+
+import com.datumbox.framework.common.dataobjects.AssociativeArray;
+import com.datumbox.framework.core.common.dataobjects.Record;
+import com.datumbox.framework.common.dataobjects.TypeInference;
+import com.datumbox.framework.common.utilities.RandomGenerator;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.ToLongFunction;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Out-of-core Training example.
+ *
+ * @author Vasilis Vryniotis <bbriniotis@datumbox.com>
+ */
+public class OutOfCoreTraining {
+
+    /**
+     * Append-only buffer which keeps its items in memory until a heap budget is
+     * reached. The items are grouped in fixed size partitions and when the budget
+     * is exceeded the least recently read partitions are written to sequential
+     * segment files. Spilled partitions are read back as a whole, with large
+     * buffered reads, every time the buffer is iterated.
+     *
+     * @param <T>
+     */
+    public static class SpillableBuffer<T extends Serializable> implements Iterable<T>, AutoCloseable {
+
+        private static final int IO_BUFFER_SIZE = 1 << 20;
+
+        private final long heapBudget;
+
+        private final int partitionSize;
+
+        private final Path directory;
+
+        private final ToLongFunction<T> weigher;
+
+        private final List<Partition<T>> partitions = new ArrayList<>();
+
+        private long heapBytes = 0L;
+
+        private long clock = 0L;
+
+        private long spills = 0L;
+
+        private long spilledBytes = 0L;
+
+        private long blocksRead = 0L;
+
+        /**
+         * Public constructor.
+         *
+         * @param heapBudget the estimated number of bytes that can be kept in memory
+         * @param partitionSize the number of items per partition
+         * @param directory the directory of the segment files
+         * @param weigher estimates the number of bytes of an item in memory
+         */
+        public SpillableBuffer(long heapBudget, int partitionSize, Path directory, ToLongFunction<T> weigher) {
+            if(heapBudget <= 0 || partitionSize <= 0) {
+                throw new IllegalArgumentException("The heapBudget and partitionSize must be positive.");
+            }
+            this.heapBudget = heapBudget;
+            this.partitionSize = partitionSize;
+            this.directory = directory;
+            this.weigher = weigher;
+        }
+
+        /**
+         * Appends an item to the buffer, spilling cold partitions if the budget is exceeded.
+         *
+         * @param item
+         */
+        public void add(T item) {
+            Partition<T> current = partitions.isEmpty()?null:partitions.get(partitions.size()-1);
+            if(current == null || current.items == null || current.size >= partitionSize) {
+                current = new Partition<>();
+                partitions.add(current);
+            }
+            long bytes = weigher.applyAsLong(item);
+            current.items.add(item);
+            current.size++;
+            current.bytes += bytes;
+            current.lastAccess = ++clock;
+            heapBytes += bytes;
+
+            while(heapBytes > heapBudget) {
+                Partition<T> coldest = null;
+                for(Partition<T> p : partitions) {
+                    if(p.items != null && p != current && (coldest == null || p.lastAccess < coldest.lastAccess)) {
+                        coldest = p;
+                    }
+                }
+                if(coldest == null) {
+                    break; //only the partition which is being filled is in memory
+                }
+                spill(coldest);
+            }
+        }
+
+        private void spill(Partition<T> partition) {
+            try {
+                partition.segment = Files.createTempFile(directory, "spill-", ".seg");
+                try(ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(partition.segment), IO_BUFFER_SIZE))) {
+                    for(T item : partition.items) {
+                        oos.writeObject(item);
+                        oos.reset(); //the items are independent; don't keep back-references
+                    }
+                }
+                spilledBytes += Files.size(partition.segment);
+            }
+            catch(IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            heapBytes -= partition.bytes;
+            partition.items = null;
+            spills++;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<T> readBlock(Partition<T> partition) {
+            List<T> block = new ArrayList<>(partition.size);
+            try(ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(partition.segment), IO_BUFFER_SIZE))) {
+                for(int i=0;i<partition.size;i++) {
+                    block.add((T) ois.readObject());
+                }
+            }
+            catch(IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            catch(ClassNotFoundException ex) {
+                throw new RuntimeException(ex);
+            }
+            blocksRead++;
+            return block;
+        }
+
+        /**
+         * Iterates over all the items in insertion order. Spilled partitions are read back one block at a time
+         * and they are not admitted back in memory.
+         *
+         * @return
+         */
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private int partitionId = 0;
+
+                private Iterator<T> current = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while(!current.hasNext() && partitionId < partitions.size()) {
+                        Partition<T> partition = partitions.get(partitionId++);
+                        if(partition.items != null) {
+                            partition.lastAccess = ++clock;
+                            current = partition.items.iterator();
+                        }
+                        else {
+                            current = readBlock(partition).iterator();
+                        }
+                    }
+                    return current.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    if(!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+            };
+        }
+
+        /**
+         * Returns the estimated number of bytes kept in memory.
+         *
+         * @return
+         */
+        public long getHeapBytes() {
+            return heapBytes;
+        }
+
+        /**
+         * Returns the number of partitions written to disk.
+         *
+         * @return
+         */
+        public long getSpills() {
+            return spills;
+        }
+
+        /**
+         * Returns the number of bytes written to the segment files.
+         *
+         * @return
+         */
+        public long getSpilledBytes() {
+            return spilledBytes;
+        }
+
+        /**
+         * Returns the number of spilled partitions read back from disk.
+         *
+         * @return
+         */
+        public long getBlocksRead() {
+            return blocksRead;
+        }
+
+        /**
+         * Returns the total number of partitions.
+         *
+         * @return
+         */
+        public int getNumberOfPartitions() {
+            return partitions.size();
+        }
+
+        /**
+         * Deletes the segment files and releases the memory.
+         */
+        @Override
+        public void close() {
+            for(Partition<T> partition : partitions) {
+                if(partition.segment != null) {
+                    try {
+                        Files.deleteIfExists(partition.segment);
+                    }
+                    catch(IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            }
+            partitions.clear();
+            heapBytes = 0L;
+        }
+
+        /**
+         * A group of consecutive items which are either in memory or in a segment file.
+         *
+         * @param <T>
+         */
+        private static class Partition<T> {
+            private List<T> items = new ArrayList<>();
+            private int size = 0;
+            private long bytes = 0L;
+            private long lastAccess = 0L;
+            private Path segment = null;
+        }
+    }
+
+    /**
+     * Example of how to train a model over data which does not fit in the heap
+     * budget, without moving every job to the MapDB storage engine.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        /**
+         * There are 5 configuration files in the resources folder:
+         *
+         * - datumbox.configuration.properties: It defines for the default storage engine (required)
+         * - datumbox.concurrencyconfiguration.properties: It controls the concurrency levels (required)
+         * - datumbox.inmemoryconfiguration.properties: It contains the configurations for the InMemory storage engine (required)
+         * - datumbox.mapdbconfiguration.properties: It contains the configurations for the MapDB storage engine (optional)
+         * - logback.xml: It contains the configuration file for the logger (optional)
+         */
+
+        //Initialization
+        //--------------
+        RandomGenerator.setGlobalSeed(42L); //optionally set a specific seed for all Random objects
+
+        Properties properties = new Properties();
+        try(InputStream in = OutOfCoreTraining.class.getClassLoader().getResourceAsStream("datumbox.configuration.properties")) {
+            if(in == null) {
+                throw new IllegalStateException("The datumbox.configuration.properties file is missing.");
+            }
+            properties.load(in);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        String heapBudgetProperty = properties.getProperty("outOfCore.heapBudget");
+        if(heapBudgetProperty == null) {
+            throw new IllegalStateException("The outOfCore.heapBudget property is missing from datumbox.configuration.properties.");
+        }
+        long heapBudget = Long.parseLong(heapBudgetProperty.trim());
+        String directory = properties.getProperty("outOfCore.directory", "").trim();
+        Path spillDirectory = Paths.get(directory.isEmpty()?System.getProperty("java.io.tmpdir"):directory);
+
+
+
+        //Stream the data to the buffer
+        //-----------------------------
+
+        //The rows are parsed one at a time straight into the buffer, so the heap budget holds while the file is read.
+        //The response is encoded as 1.0/0.0 so that a linear model estimates the probability of diabetes.
+        //The features aren't scaled upfront: the model standardizes them with running statistics as it trains.
+        SpillableBuffer<Record> buffer = new SpillableBuffer<>(heapBudget, 64, spillDirectory, r -> 64L + 48L*r.getX().size());
+        OnlineRegression.StreamingNLMS model = new OnlineRegression.StreamingNLMS(0.05, 1e-8);
+        String yColumn = "test result";
+        double sse = 0.0;
+        long startTime = System.nanoTime();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(Paths.get(OutOfCoreTraining.class.getClassLoader().getResource("datasets/diabetes/diabetes.tsv.gz").toURI()).toFile())), "UTF-8"))) {
+            String[] header = reader.readLine().split("\t", -1);
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.isEmpty()) {
+                    continue;
+                }
+                String[] values = line.split("\t", -1);
+                AssociativeArray x = new AssociativeArray();
+                Object y = null;
+                for(int i=0;i<header.length;i++) {
+                    if(yColumn.equals(header[i])) {
+                        y = "diabetes".equals(values[i])?1.0:0.0;
+                    }
+                    else if(!values[i].isEmpty()) {
+                        x.put(header[i], Double.valueOf(values[i]));
+                    }
+                }
+                Record r = new Record(x, y);
+
+                //the first epoch is trained while the data is read
+                double error = model.update(r);
+                sse += error*error;
+                buffer.add(r);
+            }
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        catch(URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        System.out.println("Partitions: "+buffer.getNumberOfPartitions()+", Spilled: "+buffer.getSpills()+" ("+buffer.getSpilledBytes()+" bytes on disk), Heap: "+buffer.getHeapBytes()+" bytes");
+        System.out.println("Epoch 1 - Mean squared error: "+sse/model.getN());
+
+
+
+        //Train over the buffer
+        //---------------------
+
+        //The model converges within a few passes; every pass reads the spilled partitions back from disk
+        int epochs = 3;
+        for(int epoch=1;epoch<epochs;epoch++) {
+            double mse = model.update(buffer);
+            System.out.println("Epoch "+(epoch+1)+" - Mean squared error: "+mse);
+        }
+        double elapsedSeconds = (System.nanoTime() - startTime)/1e9;
+
+        System.out.println("Blocks read from disk: "+buffer.getBlocksRead()+", Training throughput: "+Math.round(model.getN()/elapsedSeconds)+" records/sec");
+
+
+
+        //Use the model
+        //-------------
+        int n = 0, correct = 0;
+        for(Record r : buffer) {
+            boolean predicted = model.predict(r) >= 0.5;
+            boolean actual = TypeInference.toDouble(r.getY()) >= 0.5;
+            correct += predicted==actual?1:0;
+            ++n;
+        }
+
+        System.out.println("Classifier Accuracy: "+correct/(double)n);
+
+
+
+        //Clean up
+        //--------
+
+        //Close the buffer. This removes the segment files.
+        buffer.close();
+    }
+
+}
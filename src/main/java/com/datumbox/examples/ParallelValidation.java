@@ -0,0 +1,439 @@
+/**
+ * Copyright (C) 2013-2020 Vasilis Vryniotis <bbriniotis@datumbox.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datumbox.examples;
+
+import com.datumbox.framework.applications.datamodeling.Modeler;
+import com.datumbox.framework.applications.nlp.TextClassifier;
+import com.datumbox.framework.common.Configuration;
+import com.datumbox.framework.core.common.dataobjects.Dataframe;
+import com.datumbox.framework.common.dataobjects.TypeInference;
+import com.datumbox.framework.common.utilities.RandomGenerator;
+import com.datumbox.framework.core.machinelearning.MLBuilder;
+import com.datumbox.framework.core.machinelearning.classification.MultinomialNaiveBayes;
+import com.datumbox.framework.core.machinelearning.clustering.Kmeans;
+import com.datumbox.framework.core.machinelearning.featureselection.ChisquareSelect;
+import com.datumbox.framework.core.machinelearning.modelselection.metrics.ClassificationMetrics;
+import com.datumbox.framework.core.machinelearning.modelselection.metrics.ClusteringMetrics;
+import com.datumbox.framework.core.machinelearning.modelselection.metrics.LinearRegressionMetrics;
+import com.datumbox.framework.core.machinelearning.preprocessing.MinMaxScaler;
+import com.datumbox.framework.core.machinelearning.preprocessing.OneHotEncoder;
+import com.datumbox.framework.core.machinelearning.regression.NLMS;
+import com.datumbox.framework.core.common.text.extractors.AbstractTextExtractor;
+import com.datumbox.framework.core.common.text.extractors.NgramsExtractor;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Parallel Validation example.
+ *
+ * @author Vasilis Vryniotis <bbriniotis@datumbox.com>
+ */
+public class ParallelValidation {
+
+    /**
+     * Mergeable accumulator of a confusion matrix. Each thread fills its own
+     * instance while it scores and the partial matrices are merged at the end.
+     */
+    public static class ConfusionMatrix {
+
+        private final Map<List<Object>, Long> counts = new HashMap<>();
+
+        private long n = 0L;
+
+        /**
+         * Adds a single observation.
+         *
+         * @param y
+         * @param yPredicted
+         */
+        public void add(Object y, Object yPredicted) {
+            counts.merge(Arrays.asList(y, yPredicted), 1L, Long::sum);
+            ++n;
+        }
+
+        /**
+         * Merges the counts of another accumulator into this one.
+         *
+         * @param other
+         */
+        public void merge(ConfusionMatrix other) {
+            for(Map.Entry<List<Object>, Long> entry : other.counts.entrySet()) {
+                counts.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+            n += other.n;
+        }
+
+        /**
+         * Returns the accuracy.
+         *
+         * @return
+         */
+        public double getAccuracy() {
+            long correct = 0L;
+            for(Map.Entry<List<Object>, Long> entry : counts.entrySet()) {
+                if(Objects.equals(entry.getKey().get(0), entry.getKey().get(1))) {
+                    correct += entry.getValue();
+                }
+            }
+            return n>0?correct/(double)n:0.0;
+        }
+
+        /**
+         * Returns the macro-averaged F1 score.
+         *
+         * @return
+         */
+        public double getMacroF1() {
+            Map<Object, Long> truePositives = new HashMap<>();
+            Map<Object, Long> actual = new HashMap<>();
+            Map<Object, Long> predicted = new HashMap<>();
+            for(Map.Entry<List<Object>, Long> entry : counts.entrySet()) {
+                Object y = entry.getKey().get(0);
+                Object yPredicted = entry.getKey().get(1);
+                actual.merge(y, entry.getValue(), Long::sum);
+                predicted.merge(yPredicted, entry.getValue(), Long::sum);
+                if(Objects.equals(y, yPredicted)) {
+                    truePositives.merge(y, entry.getValue(), Long::sum);
+                }
+            }
+
+            Set<Object> classes = new HashSet<>(actual.keySet());
+            classes.addAll(predicted.keySet());
+            double sumF1 = 0.0;
+            for(Object theClass : classes) {
+                double tp = truePositives.getOrDefault(theClass, 0L);
+                double precision = tp>0?tp/predicted.get(theClass):0.0;
+                double recall = tp>0?tp/actual.get(theClass):0.0;
+                sumF1 += precision+recall>0?2.0*precision*recall/(precision+recall):0.0;
+            }
+            return classes.isEmpty()?0.0:sumF1/classes.size();
+        }
+    }
+
+    /**
+     * Mergeable accumulator of the sums of squares of a regression. It keeps the
+     * mean and the sum of squared deviations of the real responses, which merge
+     * exactly across threads, and the sum of squared errors.
+     */
+    public static class RegressionSums {
+
+        private long n = 0L;
+
+        private double meanY = 0.0;
+
+        private double sumSquaredDeviations = 0.0;
+
+        private double sse = 0.0;
+
+        /**
+         * Adds a single observation.
+         *
+         * @param y
+         * @param yPredicted
+         */
+        public void add(Object y, Object yPredicted) {
+            double realY = TypeInference.toDouble(y);
+            double error = realY - TypeInference.toDouble(yPredicted);
+            ++n;
+            double delta = realY - meanY;
+            meanY += delta/n;
+            sumSquaredDeviations += delta*(realY - meanY);
+            sse += error*error;
+        }
+
+        /**
+         * Merges the sums of another accumulator into this one.
+         *
+         * @param other
+         */
+        public void merge(RegressionSums other) {
+            if(other.n == 0) {
+                return;
+            }
+            long total = n + other.n;
+            double delta = other.meanY - meanY;
+            meanY += delta*other.n/total;
+            sumSquaredDeviations += other.sumSquaredDeviations + delta*delta*n*other.n/total;
+            n = total;
+            sse += other.sse;
+        }
+
+        /**
+         * Returns the sum of squared errors.
+         *
+         * @return
+         */
+        public double getSSE() {
+            return sse;
+        }
+
+        /**
+         * Returns the regression sum of squares. As in LinearRegressionMetrics, it is
+         * the sum of (y - mean(y))^2 over the real responses.
+         *
+         * @return
+         */
+        public double getSSR() {
+            return sumSquaredDeviations;
+        }
+
+        /**
+         * Returns the total sum of squares, SSR + SSE as in LinearRegressionMetrics.
+         *
+         * @return
+         */
+        public double getSST() {
+            return getSSR() + sse;
+        }
+
+        /**
+         * Returns the R square as SSR/SST, the same definition used by LinearRegressionMetrics.
+         *
+         * @return
+         */
+        public double getRSquare() {
+            double sst = getSST();
+            return sst>0.0?getSSR()/sst:0.0;
+        }
+    }
+
+    /**
+     * Mergeable accumulator of the contingency table between clusters and real classes.
+     */
+    public static class ContingencyTable {
+
+        private final Map<Object, Map<Object, Long>> counts = new HashMap<>();
+
+        private long n = 0L;
+
+        /**
+         * Adds a single observation.
+         *
+         * @param y
+         * @param clusterId
+         */
+        public void add(Object y, Object clusterId) {
+            counts.computeIfAbsent(clusterId, k -> new HashMap<>()).merge(y, 1L, Long::sum);
+            ++n;
+        }
+
+        /**
+         * Merges the counts of another accumulator into this one.
+         *
+         * @param other
+         */
+        public void merge(ContingencyTable other) {
+            for(Map.Entry<Object, Map<Object, Long>> cluster : other.counts.entrySet()) {
+                Map<Object, Long> classCounts = counts.computeIfAbsent(cluster.getKey(), k -> new HashMap<>());
+                for(Map.Entry<Object, Long> entry : cluster.getValue().entrySet()) {
+                    classCounts.merge(entry.getKey(), entry.getValue(), Long::sum);
+                }
+            }
+            n += other.n;
+        }
+
+        /**
+         * Returns the purity of the clusters.
+         *
+         * @return
+         */
+        public double getPurity() {
+            long majority = 0L;
+            for(Map<Object, Long> classCounts : counts.values()) {
+                majority += Collections.max(classCounts.values());
+            }
+            return n>0?majority/(double)n:0.0;
+        }
+    }
+
+    /**
+     * Example of how to compute validation metrics with mergeable accumulators.
+     * The framework's predict() has no per-record hook, so the accumulators don't
+     * remove the pass over the predictions; they replace the serial metrics pass
+     * with a parallel one whose per-thread partial results are merged.
+     *
+     * @param args the command line arguments
+     * @throws java.net.URISyntaxException
+     */
+    public static void main(String[] args) throws URISyntaxException {
+        /**
+         * There are 5 configuration files in the resources folder:
+         *
+         * - datumbox.configuration.properties: It defines for the default storage engine (required)
+         * - datumbox.concurrencyconfiguration.properties: It controls the concurrency levels (required)
+         * - datumbox.inmemoryconfiguration.properties: It contains the configurations for the InMemory storage engine (required)
+         * - datumbox.mapdbconfiguration.properties: It contains the configurations for the MapDB storage engine (optional)
+         * - logback.xml: It contains the configuration file for the logger (optional)
+         */
+
+        //Initialization
+        //--------------
+        RandomGenerator.setGlobalSeed(42L); //optionally set a specific seed for all Random objects
+        Configuration configuration = Configuration.getConfiguration(); //default configuration based on properties file
+
+
+
+        //Text Classification
+        //-------------------
+        Map<Object, URI> datasets = new HashMap<>(); //The examples of each category are stored on the same file, one example per row.
+        datasets.put("positive", ParallelValidation.class.getClassLoader().getResource("datasets/sentiment-analysis/rt-polarity.pos").toURI());
+        datasets.put("negative", ParallelValidation.class.getClassLoader().getResource("datasets/sentiment-analysis/rt-polarity.neg").toURI());
+
+        TextClassifier.TrainingParameters textParameters = new TextClassifier.TrainingParameters();
+        textParameters.setNumericalScalerTrainingParameters(null);
+        textParameters.setFeatureSelectorTrainingParametersList(Arrays.asList(new ChisquareSelect.TrainingParameters()));
+        textParameters.setTextExtractorParameters(new NgramsExtractor.Parameters());
+        textParameters.setModelerTrainingParameters(new MultinomialNaiveBayes.TrainingParameters());
+
+        TextClassifier textClassifier = MLBuilder.create(textParameters, configuration);
+        textClassifier.fit(datasets);
+
+        //Predict the examples once, as textClassifier.validate(datasets) does internally
+        Dataframe textDataframe = Dataframe.Builder.parseTextFiles(datasets, AbstractTextExtractor.newInstance(textParameters.getTextExtractorParameters()), configuration);
+        textClassifier.predict(textDataframe);
+
+        //Every thread accumulates its own confusion matrix over its share of the records
+        ConfusionMatrix confusionMatrix = textDataframe.parallelStream().collect(
+                ConfusionMatrix::new,
+                (cm, r) -> cm.add(r.getY(), r.getYPredicted()),
+                ConfusionMatrix::merge
+        );
+
+        ClassificationMetrics vm = new ClassificationMetrics(textDataframe);
+        System.out.println("Classifier Accuracy (ClassificationMetrics): "+vm.getAccuracy()+", Macro F1: "+vm.getMacroF1());
+        System.out.println("Classifier Accuracy (parallel): "+confusionMatrix.getAccuracy()+", Macro F1: "+confusionMatrix.getMacroF1());
+
+        textClassifier.delete();
+        textDataframe.close();
+
+
+
+        //Regression
+        //----------
+        Dataframe laborDataframe;
+        try (Reader fileReader = new InputStreamReader(new FileInputStream(Paths.get(ParallelValidation.class.getClassLoader().getResource("datasets/labor-statistics/longley.csv").toURI()).toFile()), "UTF-8")) {
+            LinkedHashMap<String, TypeInference.DataType> headerDataTypes = new LinkedHashMap<>();
+            headerDataTypes.put("Employed", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("GNP.deflator", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("GNP", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Unemployed", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Armed.Forces", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Population", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Year", TypeInference.DataType.NUMERICAL);
+
+            laborDataframe = Dataframe.Builder.parseCSVFile(fileReader, "Employed", headerDataTypes, ',', '"', "\r\n", null, null, configuration);
+        }
+        catch(UncheckedIOException | IOException | URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        Modeler.TrainingParameters modelerParameters = new Modeler.TrainingParameters();
+        modelerParameters.setNumericalScalerTrainingParameters(new MinMaxScaler.TrainingParameters());
+        modelerParameters.setCategoricalEncoderTrainingParameters(new OneHotEncoder.TrainingParameters());
+        modelerParameters.setFeatureSelectorTrainingParametersList(Arrays.asList());
+        modelerParameters.setModelerTrainingParameters(new NLMS.TrainingParameters());
+
+        Modeler modeler = MLBuilder.create(modelerParameters, configuration);
+        modeler.fit(laborDataframe);
+        modeler.predict(laborDataframe);
+
+        //The sums of squares are accumulated per thread and merged
+        RegressionSums regressionSums = laborDataframe.parallelStream().collect(
+                RegressionSums::new,
+                (rs, r) -> rs.add(r.getY(), r.getYPredicted()),
+                RegressionSums::merge
+        );
+
+        System.out.println("Model Rsquare (LinearRegressionMetrics): "+new LinearRegressionMetrics(laborDataframe).getRSquare());
+        System.out.println("Model Rsquare (parallel): "+regressionSums.getRSquare());
+
+        modeler.delete();
+        laborDataframe.close();
+
+
+
+        //Clustering
+        //----------
+        Dataframe heartDataframe;
+        try (Reader fileReader = new InputStreamReader(new FileInputStream(Paths.get(ParallelValidation.class.getClassLoader().getResource("datasets/heart-desease/heart.csv").toURI()).toFile()), "UTF-8")) {
+            LinkedHashMap<String, TypeInference.DataType> headerDataTypes = new LinkedHashMap<>();
+            headerDataTypes.put("Age", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Sex", TypeInference.DataType.CATEGORICAL);
+            headerDataTypes.put("ChestPain", TypeInference.DataType.CATEGORICAL);
+            headerDataTypes.put("RestBP", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Cholesterol", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("BloodSugar", TypeInference.DataType.BOOLEAN);
+            headerDataTypes.put("ECG", TypeInference.DataType.CATEGORICAL);
+            headerDataTypes.put("MaxHeartRate", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Angina", TypeInference.DataType.BOOLEAN);
+            headerDataTypes.put("OldPeak", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("STSlope", TypeInference.DataType.ORDINAL);
+            headerDataTypes.put("Vessels", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Thal", TypeInference.DataType.CATEGORICAL);
+            headerDataTypes.put("Class", TypeInference.DataType.CATEGORICAL);
+
+            heartDataframe = Dataframe.Builder.parseCSVFile(fileReader, "Class", headerDataTypes, ',', '"', "\r\n", null, null, configuration);
+        }
+        catch(UncheckedIOException | IOException | URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        MinMaxScaler numericalScaler = MLBuilder.create(new MinMaxScaler.TrainingParameters(), configuration);
+        numericalScaler.fit_transform(heartDataframe);
+        OneHotEncoder categoricalEncoder = MLBuilder.create(new OneHotEncoder.TrainingParameters(), configuration);
+        categoricalEncoder.fit_transform(heartDataframe);
+
+        Kmeans.TrainingParameters kmeansParameters = new Kmeans.TrainingParameters();
+        kmeansParameters.setK(2);
+        kmeansParameters.setMaxIterations(200);
+        kmeansParameters.setInitializationMethod(Kmeans.TrainingParameters.Initialization.FORGY);
+        kmeansParameters.setDistanceMethod(Kmeans.TrainingParameters.Distance.EUCLIDIAN);
+        kmeansParameters.setWeighted(false);
+        kmeansParameters.setCategoricalGamaMultiplier(1.0);
+        kmeansParameters.setSubsetFurthestFirstcValue(2.0);
+
+        Kmeans clusterer = MLBuilder.create(kmeansParameters, configuration);
+        clusterer.fit(heartDataframe);
+        clusterer.predict(heartDataframe);
+
+        ContingencyTable contingencyTable = heartDataframe.parallelStream().collect(
+                ContingencyTable::new,
+                (ct, r) -> ct.add(r.getY(), r.getYPredicted()),
+                ContingencyTable::merge
+        );
+
+        System.out.println("Clusterer Purity (ClusteringMetrics): "+new ClusteringMetrics(heartDataframe).getPurity());
+        System.out.println("Clusterer Purity (parallel): "+contingencyTable.getPurity());
+
+
+
+        //Clean up
+        //--------
+
+        //Delete scaler, encoder, clusterer.
+        numericalScaler.delete();
+        categoricalEncoder.delete();
+        clusterer.delete();
+
+        //Close Dataframes.
+        heartDataframe.close();
+    }
+
+}
@@ -0,0 +1,469 @@
+/**
+ * Copyright (C) 2013-2020 Vasilis Vryniotis <bbriniotis@datumbox.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datumbox.examples;
+
+import com.datumbox.framework.common.Configuration;
+import com.datumbox.framework.core.common.dataobjects.Dataframe;
+import com.datumbox.framework.core.common.dataobjects.Record;
+import com.datumbox.framework.common.dataobjects.TypeInference;
+import com.datumbox.framework.common.utilities.RandomGenerator;
+import com.datumbox.framework.core.machinelearning.MLBuilder;
+import com.datumbox.framework.core.machinelearning.classification.MultinomialNaiveBayes;
+import com.datumbox.framework.core.machinelearning.classification.SoftMaxRegression;
+import com.datumbox.framework.core.machinelearning.featureselection.PCA;
+import com.datumbox.framework.core.machinelearning.modelselection.metrics.ClassificationMetrics;
+import com.datumbox.framework.core.machinelearning.modelselection.splitters.ShuffleSplitter;
+import com.datumbox.framework.core.machinelearning.preprocessing.MinMaxScaler;
+import com.datumbox.framework.core.common.text.extractors.AbstractTextExtractor;
+import com.datumbox.framework.core.common.text.extractors.NgramsExtractor;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Quantized Inference example.
+ *
+ * @author Vasilis Vryniotis <bbriniotis@datumbox.com>
+ */
+public class QuantizedInference {
+
+    /**
+     * Inference-only representation of a linear model whose parameters are stored
+     * in a table keyed by (feature, class) tuples, such as the thitas of
+     * SoftMaxRegression or the log-likelihoods of MultinomialNaiveBayes. Instead of
+     * boxed Double values in a map, the weights are kept in a dense class-major
+     * array either as floats or as 8-bit integers with one scale per block.
+     * Naive Bayes is exported with its log-priors as the per class biases.
+     */
+    public static class QuantizedLinearModel implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The precision used to store the weights.
+         */
+        public enum Precision {
+            /**
+             * 32-bit floating point weights.
+             */
+            FLOAT,
+
+            /**
+             * 8-bit integer weights with a float scale per block.
+             */
+            INT8;
+        }
+
+        private final Precision precision;
+
+        private final int blockSize;
+
+        private final Map<Object, Integer> featureIds = new HashMap<>();
+
+        private final Object[] classes;
+
+        private final Map<Object, Double> biases = new HashMap<>();
+
+        private final boolean binarized;
+
+        private final int numberOfFeatures;
+
+        private float[] floatWeights;
+
+        private byte[] quantizedWeights;
+
+        private float[] scales;
+
+        /**
+         * Exports the weights of a full model to the quantized representation.
+         *
+         * @param weights the weights of the full model keyed by (feature, class) tuples
+         * @param classes the classes of the full model
+         * @param biases optional per class constant added to the scores (e.g. the log-priors of Naive Bayes); may be null
+         * @param binarized whether positive feature values count as 1.0, as in MultinomialNaiveBayes unless it is multiProbabilityWeighted
+         * @param precision the precision used to store the weights
+         * @param blockSize the number of consecutive weights which share a scale; ignored for FLOAT
+         */
+        public QuantizedLinearModel(Map<List<Object>, Double> weights, Set<Object> classes, Map<Object, Double> biases, boolean binarized, Precision precision, int blockSize) {
+            if(blockSize <= 0) {
+                throw new IllegalArgumentException("The blockSize must be positive.");
+            }
+            this.precision = precision;
+            this.blockSize = blockSize;
+            this.binarized = binarized;
+            this.classes = classes.toArray();
+            if(biases != null) {
+                this.biases.putAll(biases);
+            }
+
+            Map<Object, Integer> classIds = new HashMap<>();
+            for(int c=0;c<this.classes.length;c++) {
+                classIds.put(this.classes[c], c);
+            }
+            for(List<Object> featureClassTuple : weights.keySet()) {
+                featureIds.putIfAbsent(featureClassTuple.get(0), featureIds.size());
+            }
+            numberOfFeatures = featureIds.size();
+
+            double[] dense = new double[this.classes.length*numberOfFeatures];
+            for(Map.Entry<List<Object>, Double> entry : weights.entrySet()) {
+                Integer c = classIds.get(entry.getKey().get(1));
+                if(c != null) {
+                    dense[c*numberOfFeatures + featureIds.get(entry.getKey().get(0))] = entry.getValue();
+                }
+            }
+
+            if(precision == Precision.FLOAT) {
+                floatWeights = new float[dense.length];
+                for(int i=0;i<dense.length;i++) {
+                    floatWeights[i] = (float) dense[i];
+                }
+            }
+            else {
+                quantizedWeights = new byte[dense.length];
+                scales = new float[(dense.length + blockSize - 1)/blockSize];
+                for(int b=0;b<scales.length;b++) {
+                    int from = b*blockSize;
+                    int to = Math.min(from + blockSize, dense.length);
+
+                    double maxAbs = 0.0;
+                    for(int i=from;i<to;i++) {
+                        maxAbs = Math.max(maxAbs, Math.abs(dense[i]));
+                    }
+                    float scale = (float) (maxAbs/127.0);
+                    scales[b] = scale;
+
+                    for(int i=from;i<to;i++) {
+                        quantizedWeights[i] = scale>0f?(byte) Math.round(dense[i]/scale):0;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the weight of the provided position, de-quantizing it if necessary.
+         *
+         * @param i
+         * @return
+         */
+        private double weight(int i) {
+            if(precision == Precision.FLOAT) {
+                return floatWeights[i];
+            }
+            return quantizedWeights[i]*scales[i/blockSize];
+        }
+
+        /**
+         * Estimates the scores of all classes for the provided record.
+         *
+         * @param r
+         * @param constantFeature the name of the feature which is implicitly equal to 1.0 for every record; may be null
+         * @return
+         */
+        public double[] score(Record r, Object constantFeature) {
+            double[] scores = new double[classes.length];
+            for(int c=0;c<classes.length;c++) {
+                scores[c] = biases.getOrDefault(classes[c], 0.0);
+            }
+
+            Integer constantId = constantFeature!=null?featureIds.get(constantFeature):null;
+            if(constantId != null) {
+                for(int c=0;c<classes.length;c++) {
+                    scores[c] += weight(c*numberOfFeatures + constantId);
+                }
+            }
+
+            for(Map.Entry<Object, Object> entry : r.getX().entrySet()) {
+                Integer f = featureIds.get(entry.getKey());
+                Double value = TypeInference.toDouble(entry.getValue());
+                if(f == null || value == null) {
+                    continue;
+                }
+                double x = binarized && value > 0.0?1.0:value;
+                for(int c=0;c<classes.length;c++) {
+                    scores[c] += weight(c*numberOfFeatures + f)*x;
+                }
+            }
+            return scores;
+        }
+
+        /**
+         * Returns the class with the highest score for the provided record.
+         *
+         * @param r
+         * @param constantFeature the name of the feature which is implicitly equal to 1.0 for every record; may be null
+         * @return
+         */
+        public Object predict(Record r, Object constantFeature) {
+            double[] scores = score(r, constantFeature);
+            int best = 0;
+            for(int c=1;c<scores.length;c++) {
+                if(scores[c] > scores[best]) {
+                    best = c;
+                }
+            }
+            return classes[best];
+        }
+
+        /**
+         * Returns the number of features of the model.
+         *
+         * @return
+         */
+        public int getNumberOfFeatures() {
+            return numberOfFeatures;
+        }
+
+        /**
+         * Returns the number of bytes used by the weight arrays.
+         *
+         * @return
+         */
+        public long getWeightBytes() {
+            if(precision == Precision.FLOAT) {
+                return 4L*floatWeights.length;
+            }
+            return quantizedWeights.length + 4L*scales.length;
+        }
+    }
+
+    /**
+     * Estimated heap bytes of a boxed Double.
+     */
+    private static final long BOXED_DOUBLE_BYTES = 16L;
+
+    /**
+     * Estimated heap bytes of a HashMap entry, including its slot in the table.
+     */
+    private static final long MAP_ENTRY_BYTES = 40L;
+
+    /**
+     * Estimated heap bytes of a (feature, class) key created with Arrays.asList().
+     */
+    private static final long TUPLE_KEY_BYTES = 40L;
+
+    /**
+     * Estimated heap bytes of a boxed Integer.
+     */
+    private static final long BOXED_INTEGER_BYTES = 16L;
+
+    /**
+     * Estimates the heap bytes used by the weights of the full model, which are
+     * kept as boxed Double values in a map keyed by (feature, class) tuples.
+     *
+     * @param weights
+     * @return
+     */
+    private static long estimateFullModelBytes(Map<List<Object>, Double> weights) {
+        return weights.size()*(MAP_ENTRY_BYTES + TUPLE_KEY_BYTES + BOXED_DOUBLE_BYTES);
+    }
+
+    /**
+     * Estimates the heap bytes used by a quantized model: its weight arrays plus the
+     * feature dictionary, which holds one entry per feature instead of one per weight.
+     *
+     * @param model
+     * @return
+     */
+    private static long estimateQuantizedModelBytes(QuantizedLinearModel model) {
+        return model.getWeightBytes() + model.getNumberOfFeatures()*(MAP_ENTRY_BYTES + BOXED_INTEGER_BYTES);
+    }
+
+    /**
+     * Scores the testing Dataframe, which is already predicted by the full model, with
+     * the inference models and prints the accuracy and the size of every model.
+     *
+     * @param name
+     * @param testingDataframe
+     * @param weights the weights of the full model
+     * @param floatModel
+     * @param int8Model
+     * @param constantFeature the name of the feature which is implicitly equal to 1.0 for every record; may be null
+     */
+    private static void report(String name, Dataframe testingDataframe, Map<List<Object>, Double> weights, QuantizedLinearModel floatModel, QuantizedLinearModel int8Model, Object constantFeature) {
+        ClassificationMetrics vm = new ClassificationMetrics(testingDataframe);
+
+        int n = 0, floatCorrect = 0, int8Correct = 0, floatAgreement = 0, int8Agreement = 0;
+        for(Record r : testingDataframe) {
+            Object floatPrediction = floatModel.predict(r, constantFeature);
+            Object int8Prediction = int8Model.predict(r, constantFeature);
+
+            floatCorrect += floatPrediction.equals(r.getY())?1:0;
+            int8Correct += int8Prediction.equals(r.getY())?1:0;
+            floatAgreement += floatPrediction.equals(r.getYPredicted())?1:0;
+            int8Agreement += int8Prediction.equals(r.getYPredicted())?1:0;
+            ++n;
+        }
+
+        System.out.println(name+" full model - Accuracy: "+vm.getAccuracy()+", Weights: "+weights.size()+", Weight bytes: "+8L*weights.size()+", Estimated heap bytes: "+estimateFullModelBytes(weights));
+        System.out.println(name+" FLOAT model - Accuracy: "+(floatCorrect/(double)n)+", Agreement with full model: "+(floatAgreement/(double)n)+", Weight bytes: "+floatModel.getWeightBytes()+", Estimated heap bytes: "+estimateQuantizedModelBytes(floatModel));
+        System.out.println(name+" INT8 model - Accuracy: "+(int8Correct/(double)n)+", Agreement with full model: "+(int8Agreement/(double)n)+", Weight bytes: "+int8Model.getWeightBytes()+", Estimated heap bytes: "+estimateQuantizedModelBytes(int8Model));
+    }
+
+    /**
+     * Example of how to export a trained classifier to a compact representation
+     * which is used only for inference, and of how to measure its accuracy loss.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        /**
+         * There are 5 configuration files in the resources folder:
+         *
+         * - datumbox.configuration.properties: It defines for the default storage engine (required)
+         * - datumbox.concurrencyconfiguration.properties: It controls the concurrency levels (required)
+         * - datumbox.inmemoryconfiguration.properties: It contains the configurations for the InMemory storage engine (required)
+         * - datumbox.mapdbconfiguration.properties: It contains the configurations for the MapDB storage engine (optional)
+         * - logback.xml: It contains the configuration file for the logger (optional)
+         */
+
+        //Initialization
+        //--------------
+        RandomGenerator.setGlobalSeed(42L); //optionally set a specific seed for all Random objects
+        Configuration configuration = Configuration.getConfiguration(); //default configuration based on properties file
+
+
+
+        //Linear classifier
+        //-----------------
+
+        //Read the data
+        Dataframe data;
+        try (Reader fileReader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(Paths.get(QuantizedInference.class.getClassLoader().getResource("datasets/diabetes/diabetes.tsv.gz").toURI()).toFile())), "UTF-8"))) {
+            LinkedHashMap<String, TypeInference.DataType> headerDataTypes = new LinkedHashMap<>();
+            headerDataTypes.put("pregnancies", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("plasma glucose", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("blood pressure", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("triceps thickness", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("serum insulin", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("bmi", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("dpf", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("age", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("test result", TypeInference.DataType.CATEGORICAL);
+
+            data = Dataframe.Builder.parseCSVFile(fileReader, "test result", headerDataTypes, '\t', '"', "\r\n", null, null, configuration);
+        }
+        catch(UncheckedIOException | IOException | URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        //Spit into train and test datasets
+        ShuffleSplitter.Split split = new ShuffleSplitter(0.8, 1).split(data).next();
+        Dataframe trainingDataframe = split.getTrain();
+        Dataframe testingDataframe = split.getTest();
+
+        //Scale continuous variables
+        MinMaxScaler.TrainingParameters nsParams = new MinMaxScaler.TrainingParameters();
+        MinMaxScaler numericalScaler = MLBuilder.create(nsParams, configuration);
+        numericalScaler.fit_transform(trainingDataframe);
+
+        //Perform dimensionality reduction using PCA
+        PCA.TrainingParameters featureSelectionParameters = new PCA.TrainingParameters();
+        featureSelectionParameters.setMaxDimensions(trainingDataframe.xColumnSize()-1); //remove one dimension
+        featureSelectionParameters.setWhitened(false);
+        featureSelectionParameters.setVariancePercentageThreshold(0.99999995);
+
+        PCA featureSelection = MLBuilder.create(featureSelectionParameters, configuration);
+        featureSelection.fit_transform(trainingDataframe);
+
+        //Fit the full classifier
+        SoftMaxRegression.TrainingParameters param = new SoftMaxRegression.TrainingParameters();
+        param.setTotalIterations(200);
+        param.setLearningRate(0.1);
+
+        SoftMaxRegression classifier = MLBuilder.create(param, configuration);
+        classifier.fit(trainingDataframe);
+
+        //Export to the inference representations
+        Map<List<Object>, Double> thitas = classifier.getModelParameters().getThitas();
+        Set<Object> classes = classifier.getModelParameters().getClasses();
+
+        QuantizedLinearModel floatModel = new QuantizedLinearModel(thitas, classes, null, false, QuantizedLinearModel.Precision.FLOAT, 64);
+        QuantizedLinearModel int8Model = new QuantizedLinearModel(thitas, classes, null, false, QuantizedLinearModel.Precision.INT8, 64);
+
+        //Apply the same transformations on testingDataframe and score it with the full model
+        numericalScaler.transform(testingDataframe);
+        featureSelection.transform(testingDataframe);
+        classifier.predict(testingDataframe);
+
+        //Compare the models
+        report("SoftMax", testingDataframe, thitas, floatModel, int8Model, Dataframe.COLUMN_NAME_CONSTANT);
+
+        //Delete scaler, featureselector and classifier.
+        numericalScaler.delete();
+        featureSelection.delete();
+        classifier.delete();
+
+        //Close Dataframes.
+        trainingDataframe.close();
+        testingDataframe.close();
+
+
+
+        //Naive Bayes text classifier
+        //---------------------------
+
+        //Read the data; one example per row and one file per category
+        Map<Object, URI> datasets = new HashMap<>();
+        try {
+            datasets.put("positive", QuantizedInference.class.getClassLoader().getResource("datasets/sentiment-analysis/rt-polarity.pos").toURI());
+            datasets.put("negative", QuantizedInference.class.getClassLoader().getResource("datasets/sentiment-analysis/rt-polarity.neg").toURI());
+        }
+        catch(URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+        Dataframe textData = Dataframe.Builder.parseTextFiles(datasets, AbstractTextExtractor.newInstance(new NgramsExtractor.Parameters()), configuration);
+
+        //Spit into train and test datasets
+        ShuffleSplitter.Split textSplit = new ShuffleSplitter(0.8, 1).split(textData).next();
+        Dataframe textTrainingDataframe = textSplit.getTrain();
+        Dataframe textTestingDataframe = textSplit.getTest();
+
+        //Fit the full classifier; without feature selection every n-gram has a log-likelihood per class
+        MultinomialNaiveBayes naiveBayes = MLBuilder.create(new MultinomialNaiveBayes.TrainingParameters(), configuration);
+        naiveBayes.fit(textTrainingDataframe);
+
+        //Export to the inference representations; the log-priors are the biases
+        Map<List<Object>, Double> logLikelihoods = naiveBayes.getModelParameters().getLogLikelihoods();
+        Map<Object, Double> logPriors = naiveBayes.getModelParameters().getLogPriors();
+        Set<Object> textClasses = naiveBayes.getModelParameters().getClasses();
+
+        QuantizedLinearModel floatNaiveBayes = new QuantizedLinearModel(logLikelihoods, textClasses, logPriors, true, QuantizedLinearModel.Precision.FLOAT, 64);
+        QuantizedLinearModel int8NaiveBayes = new QuantizedLinearModel(logLikelihoods, textClasses, logPriors, true, QuantizedLinearModel.Precision.INT8, 64);
+
+        //Score the testingDataframe with the full model
+        naiveBayes.predict(textTestingDataframe);
+
+        //Compare the models
+        report("Naive Bayes", textTestingDataframe, logLikelihoods, floatNaiveBayes, int8NaiveBayes, null);
+
+
+
+        //Clean up
+        //--------
+
+        //Delete the classifier.
+        naiveBayes.delete();
+
+        //Close Dataframes.
+        textTrainingDataframe.close();
+        textTestingDataframe.close();
+    }
+
+}
@@ -0,0 +1,603 @@
+/**
+ * Copyright (C) 2013-2020 Vasilis Vryniotis <bbriniotis@datumbox.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datumbox.examples;
+
+import com.datumbox.framework.applications.datamodeling.Modeler;
+import com.datumbox.framework.common.Configuration;
+import com.datumbox.framework.core.common.dataobjects.Dataframe;
+import com.datumbox.framework.core.common.dataobjects.Record;
+import com.datumbox.framework.common.dataobjects.TypeInference;
+import com.datumbox.framework.common.utilities.RandomGenerator;
+import com.datumbox.framework.core.machinelearning.MLBuilder;
+import com.datumbox.framework.core.machinelearning.preprocessing.MinMaxScaler;
+import com.datumbox.framework.core.machinelearning.preprocessing.OneHotEncoder;
+import com.datumbox.framework.core.machinelearning.regression.NLMS;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared Scheduler example.
+ *
+ * @author Vasilis Vryniotis <bbriniotis@datumbox.com>
+ */
+public class SharedScheduler {
+
+    /**
+     * The priority classes of the scheduler. Classes declared first are executed first.
+     */
+    public enum Priority {
+        /**
+         * Latency sensitive work such as online scoring.
+         */
+        ONLINE,
+
+        /**
+         * Throughput oriented work such as batch training.
+         */
+        BATCH;
+    }
+
+    /**
+     * Process-wide scheduler which is shared by all the models of the JVM. Instead of
+     * having every parallel task spin up its own pool, all the CPU-bound work is queued
+     * on a single pool sized by the sharedScheduler.poolSize property. The queue is
+     * ordered by priority class and each task is limited on how many of its subtasks
+     * can occupy the pool simultaneously. I/O-bound storage work is executed on a
+     * separate executor so that it never blocks the CPU-bound threads.
+     *
+     * This is not a work-stealing pool: all the threads take their work from one
+     * shared priority queue. Nested fork/join is supported by having a pool thread
+     * which waits on a subtask that hasn't started run it itself, so a subtask can
+     * submit to its own task and wait on the result even when the parallelism limit
+     * of the task or the pool is used up.
+     *
+     * The scheduler does not reach inside the framework. ConcurrencyConfiguration
+     * still gives every parallel loop of a fit() its own threads, so this example
+     * sets maxNumberOfThreadsPerTask to 1: every fit() runs single-threaded and the
+     * per-task limit throttles whole fit() calls, not the work inside them.
+     */
+    public static class Scheduler {
+
+        private static final String PROPERTIES_FILENAME = "datumbox.concurrencyconfiguration.properties";
+
+        private static volatile Scheduler instance;
+
+        private final int poolSize;
+
+        private final ThreadPoolExecutor cpuExecutor;
+
+        private final ExecutorService storageExecutor;
+
+        private final boolean virtualThreads;
+
+        private final AtomicLong sequence = new AtomicLong();
+
+        private final AtomicInteger pendingSubtasks = new AtomicInteger();
+
+        private final ThreadLocal<Task> currentTask = new ThreadLocal<>();
+
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        private final long startNanos = System.nanoTime();
+
+        private final Map<Priority, LongAdder> completedTasks = new EnumMap<>(Priority.class);
+
+        /**
+         * Returns the shared instance of the scheduler, initializing it from the
+         * properties file on the first call.
+         *
+         * @return
+         */
+        public static Scheduler getInstance() {
+            if(instance == null) {
+                synchronized(Scheduler.class) {
+                    if(instance == null) {
+                        Properties properties = new Properties();
+                        try(InputStream in = Scheduler.class.getClassLoader().getResourceAsStream(PROPERTIES_FILENAME)) {
+                            if(in != null) {
+                                properties.load(in);
+                            }
+                        }
+                        catch(IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+
+                        int poolSize = Integer.parseInt(properties.getProperty("sharedScheduler.poolSize", "0"));
+                        if(poolSize <= 0) {
+                            poolSize = Runtime.getRuntime().availableProcessors();
+                        }
+                        boolean virtualThreadsForStorage = Boolean.parseBoolean(properties.getProperty("sharedScheduler.virtualThreadsForStorage", "true"));
+
+                        instance = new Scheduler(poolSize, virtualThreadsForStorage);
+                    }
+                }
+            }
+            return instance;
+        }
+
+        private Scheduler(int poolSize, boolean virtualThreadsForStorage) {
+            this.poolSize = poolSize;
+            for(Priority priority : Priority.values()) {
+                completedTasks.put(priority, new LongAdder());
+            }
+
+            cpuExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), newThreadFactory("shared-scheduler-"));
+
+            ExecutorService executor = null;
+            if(virtualThreadsForStorage) {
+                try {
+                    //Executors.newVirtualThreadPerTaskExecutor() is available only on JDK 21+
+                    executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                }
+                catch(ReflectiveOperationException ex) {
+                    //virtual threads are not supported by this JVM; fall back to platform threads
+                }
+            }
+            virtualThreads = executor != null;
+            storageExecutor = virtualThreads?executor:Executors.newCachedThreadPool(newThreadFactory("shared-storage-"));
+        }
+
+        /**
+         * Creates a new task which submits its subtasks to the shared pool.
+         *
+         * @param priority the priority class of the task
+         * @param maxParallelism the maximum number of subtasks that can run concurrently; it is capped to the pool size and 0 sets it equal to the pool size
+         * @return
+         */
+        public Task newTask(Priority priority, int maxParallelism) {
+            if(maxParallelism < 0) {
+                throw new IllegalArgumentException("The maxParallelism can't be negative.");
+            }
+            return new Task(priority, maxParallelism==0?poolSize:Math.min(maxParallelism, poolSize));
+        }
+
+        /**
+         * Executes an I/O-bound storage operation on the storage executor.
+         *
+         * @param <V>
+         * @param callable
+         * @return
+         */
+        public <V> Future<V> submitStorage(Callable<V> callable) {
+            return storageExecutor.submit(callable);
+        }
+
+        /**
+         * Returns the number of subtasks which wait to be executed. This includes both
+         * the subtasks in the queue of the shared pool and those which wait for a slot
+         * of their task.
+         *
+         * @return
+         */
+        public int getQueueDepth() {
+            return cpuExecutor.getQueue().size() + pendingSubtasks.get();
+        }
+
+        /**
+         * Returns the number of subtasks which wait in the queue of the shared pool.
+         *
+         * @return
+         */
+        public int getSharedQueueDepth() {
+            return cpuExecutor.getQueue().size();
+        }
+
+        /**
+         * Returns the number of threads which are currently executing subtasks.
+         *
+         * @return
+         */
+        public int getActiveThreads() {
+            return cpuExecutor.getActiveCount();
+        }
+
+        /**
+         * Returns the size of the shared pool.
+         *
+         * @return
+         */
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        /**
+         * Returns the fraction of the available thread time which was spent executing
+         * subtasks since the scheduler was created.
+         *
+         * @return
+         */
+        public double getUtilization() {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            return elapsedNanos>0?busyNanos.get()/((double)elapsedNanos*poolSize):0.0;
+        }
+
+        /**
+         * Returns the number of completed subtasks of the provided priority class.
+         *
+         * @param priority
+         * @return
+         */
+        public long getCompletedTasks(Priority priority) {
+            return completedTasks.get(priority).sum();
+        }
+
+        /**
+         * Returns whether the storage work is executed on virtual threads.
+         *
+         * @return
+         */
+        public boolean isVirtualThreads() {
+            return virtualThreads;
+        }
+
+        /**
+         * Stops the scheduler after the execution of the already submitted work.
+         */
+        public void shutdown() {
+            cpuExecutor.shutdown();
+            storageExecutor.shutdown();
+        }
+
+        private static ThreadFactory newThreadFactory(String prefix) {
+            AtomicInteger threadId = new AtomicInteger();
+            return r -> {
+                Thread thread = new Thread(r, prefix + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+
+        /**
+         * A group of subtasks which share a priority class and a parallelism limit.
+         * Subtasks above the limit are kept in the task's own queue and they are
+         * moved to the shared queue when one of the running subtasks completes.
+         */
+        public class Task {
+
+            private final Priority priority;
+
+            private final int maxParallelism;
+
+            private final Queue<PrioritizedFuture<?>> pending = new ArrayDeque<>();
+
+            private int running = 0;
+
+            private Task(Priority priority, int maxParallelism) {
+                this.priority = priority;
+                this.maxParallelism = maxParallelism;
+            }
+
+            /**
+             * Submits a subtask for execution.
+             *
+             * @param <V>
+             * @param callable
+             * @return
+             */
+            public <V> Future<V> submit(Callable<V> callable) {
+                PrioritizedFuture<V> future = new PrioritizedFuture<>(callable, this, sequence.incrementAndGet());
+                boolean dispatch;
+                synchronized(this) {
+                    dispatch = running < maxParallelism;
+                    if(dispatch) {
+                        running++;
+                    }
+                    else {
+                        pending.add(future);
+                        pendingSubtasks.incrementAndGet();
+                    }
+                }
+                if(dispatch) {
+                    cpuExecutor.execute(future);
+                }
+                return future;
+            }
+
+            /**
+             * Returns the number of subtasks which wait for a slot of this task.
+             *
+             * @return
+             */
+            public synchronized int getPendingCount() {
+                return pending.size();
+            }
+
+            private boolean removePending(PrioritizedFuture<?> future) {
+                synchronized(this) {
+                    if(!pending.remove(future)) {
+                        return false;
+                    }
+                }
+                pendingSubtasks.decrementAndGet();
+                return true;
+            }
+
+            private void onCompletion() {
+                PrioritizedFuture<?> next;
+                synchronized(this) {
+                    next = pending.poll();
+                    if(next == null) {
+                        running--;
+                    }
+                    else {
+                        pendingSubtasks.decrementAndGet();
+                    }
+                }
+                if(next != null) {
+                    cpuExecutor.execute(next);
+                }
+            }
+        }
+
+        /**
+         * Future which is ordered in the shared queue by priority class and then by submission order.
+         *
+         * @param <V>
+         */
+        private class PrioritizedFuture<V> extends FutureTask<V> implements Comparable<PrioritizedFuture<?>> {
+
+            private final Task task;
+
+            private final long seq;
+
+            private PrioritizedFuture(Callable<V> callable, Task task, long seq) {
+                super(() -> {
+                    //the metrics are updated before the result is published to the waiting threads
+                    long start = System.nanoTime();
+                    try {
+                        return callable.call();
+                    }
+                    finally {
+                        busyNanos.addAndGet(System.nanoTime() - start);
+                        completedTasks.get(task.priority).increment();
+                    }
+                });
+                this.task = task;
+                this.seq = seq;
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                try {
+                    runAs(task);
+                }
+                finally {
+                    task.onCompletion();
+                }
+            }
+
+            /**
+             * Waits for the subtask to complete. If the caller is a subtask of the shared
+             * pool and this subtask hasn't started yet, the caller runs it on its own
+             * thread instead of blocking: a subtask queued on the shared pool keeps the
+             * slot it was dispatched with, and a subtask pending on its task is run only
+             * by a subtask of the same task, whose slot is idle while it waits.
+             *
+             * @return
+             * @throws InterruptedException
+             * @throws ExecutionException
+             */
+            @Override
+            public V get() throws InterruptedException, ExecutionException {
+                Task caller = currentTask.get();
+                if(caller != null && !isDone()) {
+                    if(cpuExecutor.getQueue().remove(this)) {
+                        run();
+                    }
+                    else if(caller == task && task.removePending(this)) {
+                        runAs(task);
+                    }
+                }
+                return super.get();
+            }
+
+            private void runAs(Task t) {
+                Task previous = currentTask.get();
+                currentTask.set(t);
+                try {
+                    super.run();
+                }
+                finally {
+                    currentTask.set(previous);
+                }
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public int compareTo(PrioritizedFuture<?> o) {
+                int c = task.priority.compareTo(o.task.priority);
+                return c!=0?c:Long.compare(seq, o.seq);
+            }
+        }
+    }
+
+    /**
+     * Example of how to share a single pool between several models which train and
+     * score concurrently in the same JVM.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        /**
+         * There are 5 configuration files in the resources folder:
+         *
+         * - datumbox.configuration.properties: It defines for the default storage engine (required)
+         * - datumbox.concurrencyconfiguration.properties: It controls the concurrency levels (required)
+         * - datumbox.inmemoryconfiguration.properties: It contains the configurations for the InMemory storage engine (required)
+         * - datumbox.mapdbconfiguration.properties: It contains the configurations for the MapDB storage engine (optional)
+         * - logback.xml: It contains the configuration file for the logger (optional)
+         */
+
+        //Initialization
+        //--------------
+        RandomGenerator.setGlobalSeed(42L); //optionally set a specific seed for all Random objects
+        Configuration configuration = Configuration.getConfiguration(); //default configuration based on properties file
+        configuration.getConcurrencyConfiguration().setMaxNumberOfThreadsPerTask(1); //the framework's loops don't run on the shared scheduler, so every fit() is kept single-threaded
+
+        Scheduler scheduler = Scheduler.getInstance();
+
+
+
+        //Reading Data
+        //------------
+        Dataframe trainingDataframe;
+        try (Reader fileReader = new InputStreamReader(new FileInputStream(Paths.get(SharedScheduler.class.getClassLoader().getResource("datasets/labor-statistics/longley.csv").toURI()).toFile()), "UTF-8")) {
+            LinkedHashMap<String, TypeInference.DataType> headerDataTypes = new LinkedHashMap<>();
+            headerDataTypes.put("Employed", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("GNP.deflator", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("GNP", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Unemployed", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Armed.Forces", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Population", TypeInference.DataType.NUMERICAL);
+            headerDataTypes.put("Year", TypeInference.DataType.NUMERICAL);
+
+            trainingDataframe = Dataframe.Builder.parseCSVFile(fileReader, "Employed", headerDataTypes, ',', '"', "\r\n", null, null, configuration);
+        }
+        catch(UncheckedIOException | IOException | URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        //Prepare one copy of the data per batch job before submitting them
+        int batchJobs = 4;
+        List<Dataframe> batchDataframes = new ArrayList<>();
+        for(int i=0;i<batchJobs;i++) {
+            batchDataframes.add(trainingDataframe.copy());
+        }
+        Dataframe storageDataframe = trainingDataframe.copy();
+
+
+
+        //Prepare the online model
+        //------------------------
+        OnlineRegression.StreamingNLMS onlineModel = new OnlineRegression.StreamingNLMS(0.5, 1e-8);
+        for(int p=0;p<200;p++) {
+            onlineModel.update(trainingDataframe.values());
+        }
+        List<Record> onlineRecords = new ArrayList<>(trainingDataframe);
+        //StreamingNLMS is not thread-safe; the model is only shared across threads after its last update
+
+
+
+        //Submit the work
+        //---------------
+        List<Future<?>> futures = new ArrayList<>();
+
+        //Batch training: at most 2 models train concurrently, the rest wait on the task's own queue
+        Scheduler.Task batchTask = scheduler.newTask(Priority.BATCH, 2);
+        for(int i=0;i<batchJobs;i++) {
+            Dataframe df = batchDataframes.get(i);
+            futures.add(batchTask.submit(() -> {
+                Modeler.TrainingParameters trainingParameters = new Modeler.TrainingParameters();
+                trainingParameters.setNumericalScalerTrainingParameters(new MinMaxScaler.TrainingParameters());
+                trainingParameters.setCategoricalEncoderTrainingParameters(new OneHotEncoder.TrainingParameters());
+                trainingParameters.setFeatureSelectorTrainingParametersList(Arrays.asList());
+                trainingParameters.setModelerTrainingParameters(new NLMS.TrainingParameters());
+
+                Modeler modeler = MLBuilder.create(trainingParameters, configuration);
+                modeler.fit(df);
+                modeler.close();
+                df.close();
+                return null;
+            }));
+        }
+
+        //Online scoring: overtakes the queued batch work as soon as a thread becomes available
+        Scheduler.Task onlineTask = scheduler.newTask(Priority.ONLINE, 0);
+        for(int i=0;i<1000;i++) {
+            futures.add(onlineTask.submit(() -> {
+                double sum = 0.0;
+                for(Record r : onlineRecords) {
+                    sum += onlineModel.predict(r);
+                }
+                return sum;
+            }));
+        }
+
+        //Storage: runs outside of the shared pool
+        futures.add(scheduler.submitStorage(() -> {
+            storageDataframe.save("LaborStatisticsDataset");
+            storageDataframe.delete();
+            return null;
+        }));
+
+        //Nested fork/join: a subtask splits the scoring into subtasks of its own task and waits on them.
+        //The task allows a single running subtask, so the parent runs the children itself.
+        Scheduler.Task nestedTask = scheduler.newTask(Priority.ONLINE, 1);
+        futures.add(nestedTask.submit(() -> {
+            int chunks = 4;
+            int chunkSize = (onlineRecords.size() + chunks - 1)/chunks;
+            List<Future<Double>> children = new ArrayList<>();
+            for(int from=0;from<onlineRecords.size();from+=chunkSize) {
+                List<Record> chunk = onlineRecords.subList(from, Math.min(from+chunkSize, onlineRecords.size()));
+                children.add(nestedTask.submit(() -> {
+                    double sum = 0.0;
+                    for(Record r : chunk) {
+                        sum += onlineModel.predict(r);
+                    }
+                    return sum;
+                }));
+            }
+            double sum = 0.0;
+            for(Future<Double> child : children) {
+                sum += child.get();
+            }
+            return sum;
+        }));
+
+        System.out.println("Queue depth after submission: "+scheduler.getQueueDepth()+" (shared queue: "+scheduler.getSharedQueueDepth()+", batch pending: "+batchTask.getPendingCount()+", online pending: "+onlineTask.getPendingCount()+")");
+
+        for(Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch(InterruptedException | ExecutionException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+
+
+        //Report the metrics
+        //------------------
+        System.out.println("Pool size: "+scheduler.getPoolSize());
+        System.out.println("Storage on virtual threads: "+scheduler.isVirtualThreads());
+        System.out.println("Completed online subtasks: "+scheduler.getCompletedTasks(Priority.ONLINE));
+        System.out.println("Completed batch subtasks: "+scheduler.getCompletedTasks(Priority.BATCH));
+        System.out.println("Queue depth: "+scheduler.getQueueDepth());
+        System.out.println("Active threads: "+scheduler.getActiveThreads());
+        System.out.println("Utilization: "+scheduler.getUtilization());
+
+
+
+        //Clean up
+        //--------
+
+        //Stop the scheduler.
+        scheduler.shutdown();
+
+        //Close Dataframes.
+        trainingDataframe.close();
+    }
+
+}